@@ -0,0 +1,38 @@
+import org.openjdk.jol.info.GraphLayout;
+
+// ----------------------
+// Speicherbedarf pro Knoten (Start: java -Djdk.attach.allowAttachSelf -cp target/benchmarks.jar TreeFootprint [n])
+// ----------------------
+// Misst mit JOL den erreichbaren Objektgraphen nach n zufälligen Schlüsseln: RedBlackTree nur mit
+// den lebenden Node-Objekten (insertBatch, ohne Schritt und Checkpoint), RedBlackTree nach
+// insertAll (zusätzlich der Checkpoint-Snapshot des Protokolls) und ArrayRedBlackTree, einmal
+// passend vorbelegt und einmal mit Wachstumsreserve. Ausgegeben werden Bytes pro Knoten.
+public final class TreeFootprint {
+    private TreeFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int[] keys = TreeWorkloads.randomKeys(n);
+
+        RedBlackTree live = new RedBlackTree();
+        live.insertBatch(keys, n);
+        RedBlackTree withHistory = new RedBlackTree();
+        withHistory.insertAll(keys);
+        ArrayRedBlackTree exact = new ArrayRedBlackTree(n);
+        exact.insertAll(keys);
+        ArrayRedBlackTree grown = new ArrayRedBlackTree();
+        for (int key : keys) grown.insert(key);
+
+        System.out.printf("%-40s %12s %14s%n", "Baum", "Knoten", "Bytes/Knoten");
+        print("RedBlackTree (Node-Objekte)", live, n);
+        print("RedBlackTree nach insertAll", withHistory, n);
+        print("ArrayRedBlackTree (vorbelegt)", exact, n);
+        print("ArrayRedBlackTree (gewachsen)", grown, n);
+    }
+
+    private static void print(String name, Object tree, int n) {
+        long bytes = GraphLayout.parseInstance(tree).totalSize();
+        System.out.printf("%-40s %,12d %14.1f%n", name, n, (double) bytes / n);
+    }
+}
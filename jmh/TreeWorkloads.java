@@ -0,0 +1,242 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// ----------------------
+// Messaufgaben für die JMH-Benchmarks (rbtree.bench.TreeBenchmark)
+// ----------------------
+// JMH verlangt Benchmark-Klassen in einem benannten Paket, Main.java liegt aber im Standardpaket,
+// auf das benannte Pakete nicht zugreifen können. Die Aufgaben stehen deshalb hier im
+// Standardpaket und werden nur über LongSupplier (eine Messung, liefert eine Prüfsumme gegen
+// Dead-Code-Elimination) und Runnable (Vorbereitung vor jeder Messung, nicht gemessen) übergeben.
+// TreeBenchmark holt sie einmal pro Setup per Reflection über create(name, n).
+public final class TreeWorkloads {
+    private TreeWorkloads() {
+    }
+
+    public static Object create(String name, int n) {
+        switch (name) {
+            case "insert random":
+                return insert(randomKeys(n));
+            case "insert ascending":
+                return insert(ascendingKeys(n));
+            case "insert descending":
+                return insert(descendingKeys(n));
+            case "insertAll random":
+                return insertAll(randomKeys(n));
+            case "LongRedBlackTree random":
+                return insertLong(randomKeys(n));
+            case "KeyedRedBlackTree random":
+                return insertKeyed(randomKeys(n));
+            case "ArrayRedBlackTree random":
+                return insertArray(randomKeys(n));
+            case "contains RedBlackTree":
+                return containsNodes(n);
+            case "contains ArrayRedBlackTree":
+                return containsArray(n);
+            case "full clone":
+                return fullClone(n);
+            case "path-copy snapshot":
+                return new SnapshotWorkload(n);
+            case "changeStep":
+                return changeStep(n);
+            case "paint":
+                return paint(n);
+            default:
+                throw new IllegalArgumentException("Unbekannte Messaufgabe: " + name);
+        }
+    }
+
+    // Einfügen mit Schrittaufzeichnung (Schritt und Protokoll pro Schlüssel), n Schlüssel pro Messung.
+    private static LongSupplier insert(int[] keys) {
+        return () -> {
+            RedBlackTree tree = new RedBlackTree();
+            for (int key : keys) tree.insert(key);
+            return tree.size();
+        };
+    }
+
+    private static LongSupplier insertAll(int[] keys) {
+        return () -> {
+            RedBlackTree tree = new RedBlackTree();
+            tree.insertAll(keys);
+            return tree.size();
+        };
+    }
+
+    // Gegenstück zu insertAll ohne Schritte: gleiche Schlüssel als long bzw. vorab geboxt mit Comparator
+    private static LongSupplier insertLong(int[] keys) {
+        return () -> {
+            LongRedBlackTree tree = new LongRedBlackTree();
+            for (int key : keys) tree.insert(key);
+            return tree.size();
+        };
+    }
+
+    private static LongSupplier insertKeyed(int[] keys) {
+        Integer[] boxed = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) boxed[i] = keys[i];
+        return () -> {
+            KeyedRedBlackTree<Integer> tree = KeyedRedBlackTree.natural();
+            for (Integer key : boxed) tree.insert(key);
+            return tree.size();
+        };
+    }
+
+    // Array-Variante: Knoten in parallelen int-Arrays statt Node-Objekten (vgl. insertAll).
+    private static LongSupplier insertArray(int[] keys) {
+        return () -> {
+            ArrayRedBlackTree tree = new ArrayRedBlackTree();
+            tree.insertAll(keys);
+            return tree.size();
+        };
+    }
+
+    // CONTAINS_BATCH Suchen pro Messung, je zur Hälfte vorhandene und zufällige Schlüssel. Der Baum
+    // ist groß genug, dass die Lokalität der Knoten im Speicher den Unterschied ausmacht.
+    static final int CONTAINS_BATCH = 1_000;
+
+    private static LongSupplier containsNodes(int n) {
+        int[] keys = randomKeys(n);
+        RedBlackTree tree = new RedBlackTree();
+        tree.insertBatch(keys, n);
+        int[] probes = probes(keys);
+        return () -> {
+            long found = 0;
+            for (int probe : probes) {
+                if (tree.contains(probe)) found++;
+            }
+            return found;
+        };
+    }
+
+    private static LongSupplier containsArray(int n) {
+        int[] keys = randomKeys(n);
+        ArrayRedBlackTree tree = new ArrayRedBlackTree(n);
+        tree.insertAll(keys);
+        int[] probes = probes(keys);
+        return () -> {
+            long found = 0;
+            for (int probe : probes) {
+                if (tree.contains(probe)) found++;
+            }
+            return found;
+        };
+    }
+
+    private static int[] probes(int[] keys) {
+        Random random = new Random(11);
+        int[] probes = new int[CONTAINS_BATCH];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = (i % 2 == 0) ? keys[random.nextInt(keys.length)] : random.nextInt();
+        }
+        return probes;
+    }
+
+    // Vollständige Kopie (früheres cloneTree) als Vergleich zum Path-Copying-Snapshot.
+    private static LongSupplier fullClone(int n) {
+        RedBlackTree tree = new RedBlackTree();
+        tree.insertBatch(randomKeys(n), n);
+        Node snapshot = tree.snapshot();
+        return () -> fullClone(snapshot).key;
+    }
+
+    // Snapshot nach genau einem Einfügen: run() fügt ungemessen einen Schlüssel per insertBatch ein
+    // (ohne Schritt und ohne Checkpoint), gemessen wird nur snapshot(). Damit die Baumgröße bei n
+    // bleibt, wird der Baum nach n weiteren Schlüsseln ungemessen neu aufgebaut.
+    static final class SnapshotWorkload implements Runnable, LongSupplier {
+        private final int n;
+        private final int[] keys;
+        private final int[] one = new int[1];
+        private final Random random = new Random(7);
+        private RedBlackTree tree;
+
+        SnapshotWorkload(int n) {
+            this.n = n;
+            this.keys = randomKeys(n);
+        }
+
+        @Override
+        public void run() {
+            if (tree == null || tree.size() >= 2 * n) {
+                tree = new RedBlackTree();
+                tree.insertBatch(keys, n);
+                tree.snapshot();
+            }
+            one[0] = random.nextInt();
+            tree.insertBatch(one, 1);
+        }
+
+        @Override
+        public long getAsLong() {
+            return tree.snapshot().key;
+        }
+    }
+
+    // Navigation über alle n Schritte vor und zurück. Jeder Schritt wird mit getCurrentTree()
+    // tatsächlich aufgebaut (Nachspielen aus dem Protokoll), wie es der TreeVisualizer beim
+    // Zeichnen tut; eine Messung umfasst 2 * (n - 1) Schritte.
+    private static LongSupplier changeStep(int n) {
+        RedBlackTree tree = new RedBlackTree();
+        for (int key : randomKeys(n)) tree.insert(key);
+        return () -> {
+            long sum = 0;
+            for (int i = 1; i < n; i++) {
+                tree.changeStep(1);
+                sum += tree.getCurrentTree().key;
+            }
+            for (int i = 1; i < n; i++) {
+                tree.changeStep(-1);
+                sum += tree.getCurrentTree().key;
+            }
+            return sum;
+        };
+    }
+
+    // Vollständiges Zeichnen des TreeVisualizer in ein BufferedImage.
+    private static LongSupplier paint(int n) {
+        System.setProperty("java.awt.headless", "true");
+        TreeVisualizer visualizer = new TreeVisualizer(null);
+        RedBlackTree tree = new RedBlackTree(visualizer);
+        tree.insertAll(randomKeys(n));
+        visualizer.setTree(tree);
+        visualizer.setSize(1280, 800);
+        visualizer.doLayout();
+        BufferedImage image = new BufferedImage(1280, 800, BufferedImage.TYPE_INT_RGB);
+        return () -> {
+            Graphics2D g = image.createGraphics();
+            try {
+                visualizer.paint(g);
+            } finally {
+                g.dispose();
+            }
+            return image.getRGB(640, 80);
+        };
+    }
+
+    private static Node fullClone(Node node) {
+        if (node == null) return null;
+        Node copy = new Node(node.key);
+        copy.isRed = node.isRed;
+        copy.left = fullClone(node.left);
+        copy.right = fullClone(node.right);
+        return copy;
+    }
+
+    static int[] randomKeys(int n) {
+        return new Random(42).ints(n).toArray();
+    }
+
+    private static int[] ascendingKeys(int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) keys[i] = i;
+        return keys;
+    }
+
+    private static int[] descendingKeys(int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) keys[i] = n - i;
+        return keys;
+    }
+}
@@ -0,0 +1,164 @@
+package rbtree.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH-Benchmarks für Main.java. Die Messaufgaben liegen in TreeWorkloads (Standardpaket, siehe
+// dort); hier stehen nur Parameter, Messmodus und die Aufrufe.
+// Einfügen, Klonen und Zeichnen werden pro Durchlauf über alle n Schlüssel gemessen (µs pro
+// Durchlauf), Snapshot und Schrittnavigation pro einzelner Operation (ns).
+// Allokationen pro Operation liefert der GC-Profiler: java -jar target/benchmarks.jar -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TreeBenchmark {
+    static final int STEPS = 10_000;
+    // wie TreeWorkloads.CONTAINS_BATCH
+    static final int CONTAINS_BATCH = 1_000;
+
+    static Object workload(String name, int n) {
+        try {
+            return Class.forName("TreeWorkloads").getMethod("create", String.class, int.class).invoke(null, name, n);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("TreeWorkloads." + name + " nicht verfügbar", e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Insert {
+        @Param({"insert random", "insert ascending", "insert descending", "insertAll random",
+                "LongRedBlackTree random", "KeyedRedBlackTree random", "ArrayRedBlackTree random"})
+        String workload;
+        @Param({"1000", "10000", "100000"})
+        int n;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            op = (LongSupplier) workload(workload, n);
+        }
+    }
+
+    // Node-Baum gegen Array-Baum; Speicherbedarf pro Knoten misst TreeFootprint.
+    @State(Scope.Thread)
+    public static class Contains {
+        @Param({"contains RedBlackTree", "contains ArrayRedBlackTree"})
+        String workload;
+        @Param({"10000", "1000000"})
+        int n;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            op = (LongSupplier) workload(workload, n);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Clone {
+        @Param({"1000", "10000", "100000"})
+        int n;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            op = (LongSupplier) workload("full clone", n);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Snapshot {
+        @Param({"1000", "10000", "100000"})
+        int n;
+        Runnable prepare;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            Object workload = workload("path-copy snapshot", n);
+            prepare = (Runnable) workload;
+            op = (LongSupplier) workload;
+        }
+
+        // Ungemessen: ein Schlüssel per insertBatch, damit jeder Snapshot genau einen Pfad kopiert.
+        @Setup(Level.Invocation)
+        public void insertOne() {
+            prepare.run();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Steps {
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            op = (LongSupplier) workload("changeStep", STEPS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Paint {
+        @Param({"1000", "10000", "100000"})
+        int n;
+        LongSupplier op;
+
+        @Setup
+        public void setup() {
+            op = (LongSupplier) workload("paint", n);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long insert(Insert state) {
+        return state.op.getAsLong();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(CONTAINS_BATCH)
+    public long contains(Contains state) {
+        return state.op.getAsLong();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long fullClone(Clone state) {
+        return state.op.getAsLong();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long snapshot(Snapshot state) {
+        return state.op.getAsLong();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(2 * (STEPS - 1))
+    public long changeStep(Steps state) {
+        return state.op.getAsLong();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long paint(Paint state) {
+        return state.op.getAsLong();
+    }
+}
@@ -2,22 +2,114 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 // ----------------------
 // Localization – Texte
 // ----------------------
+// Die Texte liegen pro Sprache in einer unveränderlichen Tabelle, die nur einmal aufgebaut wird.
+// DE und EN sind eingebaut. Für jede weitere Sprache wird beim ersten Zugriff das ResourceBundle
+// messages_<sprache>.properties aus dem Klassenpfad geladen (UTF-8, gleiche Schlüssel wie unten,
+// z.B. messages_fr.properties). Fehlt dort ein Schlüssel, gilt der englische Text.
 class Localization {
-    public static String get(String key) {
-        String lang = Main.LANGUAGE;
+    private static final Map<String, String> DE;
+    private static final Map<String, String> EN;
+    private static final Map<String, Map<String, String>> TABLES = new ConcurrentHashMap<>();
+
+    static {
         HashMap<String, String> de = new HashMap<>();
         de.put("legendTitle", "Legende:");
         de.put("legendArrowLeft", "←: Vorheriger Schritt");
         de.put("legendArrowRight", "→: Nächster Schritt");
         de.put("legendEnterNew", "Enter: Neuer Baum (mit Enter bestätigen)");
         de.put("legendEnterAppend", "Shift+Enter: Zahlen bearbeiten");
+        de.put("legendOpen", "O: Zahlen aus Datei laden");
+        de.put("legendSession", "Strg+S / Strg+L: Sitzung speichern / laden");
+        de.put("legendZoom", "Mausrad/Ziehen: Zoom, Verschieben");
+        de.put("legendFocus", "Doppelklick: Knoten fokussieren");
+        de.put("tooltipNode", "Schlüssel %s, Teilbaum mit %d Knoten");
+        de.put("tooltipAggregate", "%d Knoten (Doppelklick zum Vergrößern)");
+        de.put("legendStats", "M: Messwerte ein/aus");
         de.put("legendEsc", "Esc: Beenden");
         de.put("confirmNewTitle", "Baum erstellen?");
         de.put("confirmNewMessage", "Einen neuen Baum erstellen? (Alter wird gelöscht)");
@@ -25,7 +117,27 @@ class Localization {
         de.put("modifyInputMessage", "Bearbeite die Zahlen (durch Komma getrennt):");
         de.put("btnShowIntermediate", "Zwischenschritte");
         de.put("intermediateTitle", "Zwischenschritte");
-        de.put("intermediateLegend", "Pfeiltasten: navigieren, Esc: schließen");
+        de.put("intermediateLegend", "Pfeiltasten: navigieren, Mausrad/Ziehen: Zoom/Verschieben, Esc: schließen");
+        de.put("invalidTitle", "Fehler");
+        de.put("invalidSummary", "%d ungültige Einträge übersprungen:");
+        de.put("loadTitle", "Zahlen laden");
+        de.put("loadProgress", "%,d Zahlen eingelesen");
+        de.put("loadCancel", "Abbrechen");
+        de.put("loadError", "Datei konnte nicht gelesen werden:");
+        de.put("saveError", "Datei konnte nicht gespeichert werden:");
+        de.put("frameTitle", "Rot-Schwarz-Baum Visualisierung (Step by Step)");
+        de.put("inputTitle", "Eingabe");
+        de.put("inputMessage", "Gib Zahlen zum Einfügen in den Rot-Schwarz-Baum ein (kommagetrennt):");
+        de.put("inputNewMessage", "Gib Zahlen zum Einfügen in den neuen Baum ein (kommagetrennt):");
+        de.put("stepPrefix", "Schritt");
+        de.put("statsRotations", "Rotationen: %,d (links %,d, rechts %,d)");
+        de.put("statsInsertCases", "Einfügefälle 1/2/3: %,d / %,d / %,d");
+        de.put("statsDeleteCases", "Löschfälle 1/2/3/4: %,d / %,d / %,d / %,d");
+        de.put("statsRecolors", "Umfärbungen: %,d");
+        de.put("statsSnapshots", "Snapshot-Kopien: %,d Knoten (ca. %,d KB)");
+        de.put("statsHeight", "Höhe %d, Schwarzhöhe %d, %,d Knoten");
+        de.put("statsInsert", "Einfügen: %,d × p50 %.1f µs, p99 %.1f µs");
+        de.put("statsPaint", "Zeichnen: %,d × p50 %.1f ms, p99 %.1f ms");
         de.put("fixedRules",
                 """
                         Feste Regeln:
@@ -36,7 +148,11 @@ class Localization {
                         5. Jeder Pfad von der Wurzel zu einem Blatt enthält die gleiche Anzahl schwarzer Knoten.
                         Fall 1: Der Onkel ist rot → Parent und Onkel werden schwarz, Grandparent wird rot.
                         Fall 2: Der Onkel ist schwarz, das eingefügte Kind liegt "zur Mitte hin" → Rotation um den Parent.
-                        Fall 3: Der Onkel ist schwarz, das eingefügte Kind liegt "außen" → Rotation um den Grandparent und Farbänderung."""
+                        Fall 3: Der Onkel ist schwarz, das eingefügte Kind liegt "außen" → Rotation um den Grandparent und Farbänderung.
+                        Löschfall 1: Der Bruder ist rot → Bruder wird schwarz, Parent rot, Rotation um den Parent.
+                        Löschfall 2: Bruder und seine Kinder sind schwarz → Bruder wird rot, das Problem wandert zum Parent.
+                        Löschfall 3: Der Bruder ist schwarz, nur sein inneres Kind ist rot → Rotation um den Bruder.
+                        Löschfall 4: Der Bruder ist schwarz, sein äußeres Kind ist rot → Rotation um den Parent und Farbänderung."""
         );
 
         HashMap<String, String> en = new HashMap<>();
@@ -45,6 +161,13 @@ class Localization {
         en.put("legendArrowRight", "→: Next step");
         en.put("legendEnterNew", "Enter: New tree (confirm with Enter)");
         en.put("legendEnterAppend", "Shift+Enter: Edit numbers");
+        en.put("legendOpen", "O: Load numbers from file");
+        en.put("legendSession", "Ctrl+S / Ctrl+L: Save / load session");
+        en.put("legendZoom", "Wheel/drag: zoom, pan");
+        en.put("legendFocus", "Double-click: focus node");
+        en.put("tooltipNode", "Key %s, subtree of %d nodes");
+        en.put("tooltipAggregate", "%d nodes (double-click to zoom in)");
+        en.put("legendStats", "M: Toggle metrics");
         en.put("legendEsc", "Esc: Exit");
         en.put("confirmNewTitle", "Create new tree?");
         en.put("confirmNewMessage", "Create a new tree? (old one will be deleted)");
@@ -52,7 +175,27 @@ class Localization {
         en.put("modifyInputMessage", "Edit numbers (comma separated):");
         en.put("btnShowIntermediate", "Intermediate Steps");
         en.put("intermediateTitle", "Intermediate Steps");
-        en.put("intermediateLegend", "Arrow keys: navigate, Esc: close");
+        en.put("intermediateLegend", "Arrow keys: navigate, wheel/drag: zoom/pan, Esc: close");
+        en.put("invalidTitle", "Error");
+        en.put("invalidSummary", "%d invalid entries skipped:");
+        en.put("loadTitle", "Loading numbers");
+        en.put("loadProgress", "%,d numbers read");
+        en.put("loadCancel", "Cancel");
+        en.put("loadError", "Could not read file:");
+        en.put("saveError", "Could not save file:");
+        en.put("frameTitle", "Red-Black Tree Visualization (Step by Step)");
+        en.put("inputTitle", "Input");
+        en.put("inputMessage", "Enter numbers for the tree (comma separated):");
+        en.put("inputNewMessage", "Enter numbers for the new tree (comma separated):");
+        en.put("stepPrefix", "Step");
+        en.put("statsRotations", "Rotations: %,d (left %,d, right %,d)");
+        en.put("statsInsertCases", "Insert cases 1/2/3: %,d / %,d / %,d");
+        en.put("statsDeleteCases", "Delete cases 1/2/3/4: %,d / %,d / %,d / %,d");
+        en.put("statsRecolors", "Recolors: %,d");
+        en.put("statsSnapshots", "Snapshot copies: %,d nodes (approx. %,d KB)");
+        en.put("statsHeight", "Height %d, black height %d, %,d nodes");
+        en.put("statsInsert", "Insert: %,d × p50 %.1f µs, p99 %.1f µs");
+        en.put("statsPaint", "Paint: %,d × p50 %.1f ms, p99 %.1f ms");
         en.put("fixedRules",
                 """
                         Fixed Rules:
@@ -63,19 +206,54 @@ class Localization {
                         5. Every path from the root to a leaf contains the same number of black nodes.
                         Case 1: If the uncle is red → Parent and uncle become black, grandparent becomes red.
                         Case 2: If the uncle is black and the inserted node lies in the middle → Rotate around the parent.
-                        Case 3: If the uncle is black and the inserted node lies on the outside → Rotate around the grandparent and recolor."""
+                        Case 3: If the uncle is black and the inserted node lies on the outside → Rotate around the grandparent and recolor.
+                        Delete case 1: If the sibling is red → Sibling becomes black, parent red, rotate around the parent.
+                        Delete case 2: If the sibling and its children are black → Sibling becomes red, the problem moves up to the parent.
+                        Delete case 3: If the sibling is black and only its inner child is red → Rotate around the sibling.
+                        Delete case 4: If the sibling is black and its outer child is red → Rotate around the parent and recolor."""
         );
-        return lang.equals("EN") ? en.get(key) : de.get(key);
+        for (RuleCase rule : RuleCase.values()) {
+            de.put(rule.key(), rule.de);
+            en.put(rule.key(), rule.en);
+        }
+        DE = Map.copyOf(de);
+        EN = Map.copyOf(en);
+        TABLES.put("DE", DE);
+        TABLES.put("EN", EN);
+    }
+
+    public static String get(String key) {
+        String text = table(Main.LANGUAGE).get(key);
+        return (text != null) ? text : EN.get(key);
+    }
+
+    static Map<String, String> table(String language) {
+        return TABLES.computeIfAbsent(language, Localization::loadBundle);
+    }
+
+    private static Map<String, String> loadBundle(String language) {
+        try {
+            ResourceBundle bundle = ResourceBundle.getBundle("messages", Locale.forLanguageTag(language.toLowerCase(Locale.ROOT)),
+                    ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_PROPERTIES));
+            HashMap<String, String> table = new HashMap<>();
+            for (String key : bundle.keySet()) table.put(key, bundle.getString(key));
+            return Map.copyOf(table);
+        } catch (MissingResourceException e) {
+            return EN;
+        }
     }
 }
 
 // ----------------------
 // Baum-Klassen
 // ----------------------
-class Node {
+// Links, Farbe und Teilbaumgröße erbt Node von LinkedRedBlackTree.Link, so balanciert RedBlackTree
+// mit demselben Code wie die Bäume für andere Schlüsseltypen.
+class Node extends LinkedRedBlackTree.Link<Node> {
     int key;
-    boolean isRed;
-    Node left, right, parent;
+    // Zuletzt erzeugte unveränderliche Kopie dieses Teilbaums (null = seitdem verändert).
+    // Unveränderte Teilbäume werden so zwischen allen Snapshots geteilt.
+    Node shared;
 
     public Node(int key) {
         this.key = key;
@@ -83,509 +261,5005 @@ class Node {
     }
 }
 
-// TreeState speichert den Deep Copy des Baumzustandes,
-// die aktiven Regel-Schritte (z.B. "Schritt 1: Fall 1" bzw. "Step 1: Case 1")
-// und die gesammelten Zwischenzustände des aktuellen Einfügeschritts.
-class TreeState {
-    Node treeClone;
-    List<String> ruleMessages;
-    List<Node> intermediateStates;
-    List<String> intermediateRules;
+// Regelfälle der Reparatur nach Einfügen bzw. Löschen. Aufgezeichnet wird nur die Konstante,
+// der lokalisierte Text entsteht erst beim Anzeigen.
+enum RuleCase {
+    INSERT_1("Fall 1", "Case 1"),
+    INSERT_2("Fall 2", "Case 2"),
+    INSERT_3("Fall 3", "Case 3"),
+    DELETE_1("Löschfall 1", "Delete case 1"),
+    DELETE_2("Löschfall 2", "Delete case 2"),
+    DELETE_3("Löschfall 3", "Delete case 3"),
+    DELETE_4("Löschfall 4", "Delete case 4");
 
-    public TreeState(Node treeClone, List<String> ruleMessages, List<Node> intermediateStates, List<String> intermediateRules) {
-        this.treeClone = treeClone;
-        this.ruleMessages = ruleMessages;
-        this.intermediateStates = intermediateStates;
-        this.intermediateRules = intermediateRules;
+    final String de;
+    final String en;
+
+    RuleCase(String de, String en) {
+        this.de = de;
+        this.en = en;
     }
-}
 
-class RedBlackTree {
-    private Node root;
-    private TreeVisualizer visualizer;
-    private List<TreeState> steps = new ArrayList<>();
-    private int currentStep = 0;
+    // Schlüssel in den Localization-Tabellen, z.B. "case.INSERT_1" oder "case.DELETE_1".
+    String key() {
+        return "case." + name();
+    }
 
-    public RedBlackTree(TreeVisualizer visualizer) {
-        this.visualizer = visualizer;
+    public String label() {
+        return Localization.get(key());
     }
+}
 
-    public void insert(int key) {
-        List<String> currentRules = new ArrayList<>();
-        List<Node> interStates = new ArrayList<>();
-        List<String> interRuleList = new ArrayList<>();
+// TreeState beschreibt einen Schritt als Position im Operationsprotokoll (siehe TreeHistory),
+// die angewendeten Regelfälle in Reihenfolge
+// und die Positionen der Zwischenzustände des Schritts. Bäume werden erst beim Zugriff
+// rekonstruiert; intermediateStates ist eine Ansicht, die jeden Zustand bei get() nachbaut.
+class TreeState {
+    final TreeHistory history;
+    final int opIndex;
+    List<RuleCase> rules;
+    final int[] intermediateOps;
+    List<Node> intermediateStates;
 
-        Node newNode = new Node(key);
-        root = insertRecursive(root, newNode);
-        fixViolation(newNode, currentRules, interStates, interRuleList);
-        root.isRed = false;
+    public TreeState(TreeHistory history, int opIndex, List<RuleCase> rules, int[] intermediateOps) {
+        this.history = history;
+        this.opIndex = opIndex;
+        this.rules = rules;
+        this.intermediateOps = intermediateOps;
+        this.intermediateStates = new AbstractList<>() {
+            @Override
+            public Node get(int index) {
+                return history.stateAt(intermediateOps[index]);
+            }
 
-        steps.add(new TreeState(cloneTree(root), currentRules, interStates, interRuleList));
-        visualizer.updateStep(currentStep);
-        visualizer.repaint();
+            @Override
+            public int size() {
+                return intermediateOps.length;
+            }
+        };
+    }
 
-        visualizer.setShowIntermediateButton(interStates.size() >= 2, interStates, interRuleList);
+    public Node tree() {
+        return history.stateAt(opIndex);
     }
 
-    private Node insertRecursive(Node root, Node newNode) {
-        if (root == null) return newNode;
-        if (newNode.key < root.key) {
-            root.left = insertRecursive(root.left, newNode);
-            root.left.parent = root;
-        } else {
-            root.right = insertRecursive(root.right, newNode);
-            root.right.parent = root;
+    // Regel-Schritte für die Anzeige, z.B. "Schritt 1: Fall 1" bzw. "Step 1: Case 1".
+    public List<String> ruleMessages() {
+        String stepPrefix = Localization.get("stepPrefix");
+        List<String> messages = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            messages.add(stepPrefix + " " + (i + 1) + ": " + rules.get(i).label());
         }
-        return root;
+        return messages;
     }
 
-    // fixViolation führt die nötigen Transformationen durch und sammelt jeden Zwischenzustand.
-    // Abhängig von der Sprache wird "Schritt X: Fall Y" (DE) oder "Step X: Case Y" (EN) in currentRules aufgenommen.
-    private void fixViolation(Node node, List<String> currentRules, List<Node> interStates, List<String> interRuleList) {
-        String stepPrefix = Main.LANGUAGE.equals("DE") ? "Schritt" : "Step";
-        String case1 = Main.LANGUAGE.equals("DE") ? "Fall 1" : "Case 1";
-        String case2 = Main.LANGUAGE.equals("DE") ? "Fall 2" : "Case 2";
-        String case3 = Main.LANGUAGE.equals("DE") ? "Fall 3" : "Case 3";
+    // Bezeichnungen der Regelfälle für das Zwischenschritt-Fenster, z.B. "Fall 2".
+    public List<String> intermediateRules() {
+        List<String> labels = new ArrayList<>(rules.size());
+        for (RuleCase rule : rules) labels.add(rule.label());
+        return labels;
+    }
+}
 
-        while (node != null && node.parent != null && node.parent.isRed) {
-            Node grandparent = node.parent.parent;
-            if (grandparent == null) break;
-            Node uncle = (node.parent == grandparent.left) ? grandparent.right : grandparent.left;
+// ----------------------
+// Operationsprotokoll mit Checkpoints
+// ----------------------
+// Statt für jeden Schritt und jeden Zwischenzustand einen Snapshot zu halten, protokolliert
+// RedBlackTree jede elementare Änderung (Knoten einhängen, umfärben, rotieren, Schlüssel setzen,
+// Knoten ausschneiden). Ein Zustand ist dann nur noch eine Position im Protokoll. Alle
+// CHECKPOINT_INTERVAL Operationen wird ein Snapshot als Checkpoint abgelegt; ein beliebiger Zustand
+// entsteht, indem ab dem nächstgelegenen Checkpoint davor die Operationen nachgespielt werden –
+// per Path-Copying, d.h. O(log n) neue Knoten je Operation, Checkpoints bleiben unverändert.
+// Die zuletzt erzeugten Zustände liegen in einem kleinen LRU-Cache.
+//
+// Knoten werden über ihren Pfad ab der Wurzel adressiert: Bit i = 1 heißt, auf Ebene i nach rechts
+// abbiegen, depth ist die Pfadlänge. Ein Rot-Schwarz-Baum mit weniger als 2^31 Knoten ist höchstens
+// 62 Ebenen hoch, der Pfad passt also in ein long.
+// Massenänderungen ohne Protokoll (Batches, Aufbau aus sortierten Schlüsseln, paralleles Laden)
+// werden mit reset() abgeschlossen: eine RESET-Operation gefolgt von einem Checkpoint, über den
+// hinweg nie nachgespielt wird.
+final class TreeHistory {
+    static final int LINK = 0;
+    static final int RECOLOR = 1;
+    static final int ROTATE_LEFT = 2;
+    static final int ROTATE_RIGHT = 3;
+    static final int SPLICE = 4;
+    static final int SET_KEY = 5;
+    static final int RESET = 6;
 
-            if (uncle != null && uncle.isRed) {
-                currentRules.add(stepPrefix + " " + (currentRules.size() + 1) + ": " + case1);
-                interRuleList.add(case1);
-                node.parent.isRed = false;
-                uncle.isRed = false;
-                grandparent.isRed = true;
-                interStates.add(cloneTree(root));
-                node = grandparent;
-            } else {
-                if (node == node.parent.right && node.parent == grandparent.left) {
-                    currentRules.add(stepPrefix + " " + (currentRules.size() + 1) + ": " + case2);
-                    interRuleList.add(case2);
-                    rotateLeft(node.parent);
-                    interStates.add(cloneTree(root));
-                    node = node.left;
-                } else if (node == node.parent.left && node.parent == grandparent.right) {
-                    currentRules.add(stepPrefix + " " + (currentRules.size() + 1) + ": " + case2);
-                    interRuleList.add(case2);
-                    rotateRight(node.parent);
-                    interStates.add(cloneTree(root));
-                    node = node.right;
-                } else {
-                    currentRules.add(stepPrefix + " " + (currentRules.size() + 1) + ": " + case3);
-                    interRuleList.add(case3);
-                    node.parent.isRed = false;
-                    grandparent.isRed = true;
-                    if (node == node.parent.left) rotateRight(grandparent);
-                    else rotateLeft(grandparent);
-                    interStates.add(cloneTree(root));
-                    break;
-                }
-            }
+    private static final int CHECKPOINT_INTERVAL = 512;
+    private static final int CACHE_SIZE = 64;
+
+    // Operation i: codes[i] = Opcode | (depth << 3), paths[i] = Pfad, args[i] = Schlüssel bzw. Farbe.
+    private int[] codes = new int[64];
+    private long[] paths = new long[64];
+    private int[] args = new int[64];
+    private int length;
+
+    private int[] checkpointOps = new int[8];
+    private Node[] checkpointTrees = new Node[8];
+    private int checkpointCount;
+
+    private final LinkedHashMap<Integer, Node> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Node> eldest) {
+            return size() > CACHE_SIZE;
         }
-        root.isRed = false;
-        if (currentRules.size() >= 2) interStates.add(cloneTree(root));
+    };
+
+    TreeHistory() {
+        checkpoint(null);
     }
 
-    private void rotateLeft(Node node) {
-        Node temp = node.right;
-        node.right = temp.left;
-        if (temp.left != null) temp.left.parent = node;
-        temp.parent = node.parent;
-        if (node.parent == null) root = temp;
-        else if (node == node.parent.left) node.parent.left = temp;
-        else node.parent.right = temp;
-        temp.left = node;
-        node.parent = temp;
+    int length() {
+        return length;
     }
 
-    private void rotateRight(Node node) {
-        Node temp = node.left;
-        node.left = temp.right;
-        if (temp.right != null) temp.right.parent = node;
-        temp.parent = node.parent;
-        if (node.parent == null) root = temp;
-        else if (node == node.parent.right) node.parent.right = temp;
-        else node.parent.left = temp;
-        temp.right = node;
-        node.parent = temp;
+    // Protokolliert eine Operation an node (lebender Baum, der Pfad wird über parent bestimmt).
+    void append(int op, Node node, int arg) {
+        int depth = 0;
+        for (Node cur = node; cur.parent != null; cur = cur.parent) depth++;
+        long path = 0;
+        int level = depth;
+        for (Node cur = node; cur.parent != null; cur = cur.parent) {
+            level--;
+            if (cur == cur.parent.right) path |= 1L << level;
+        }
+        append(op, depth, path, arg);
     }
 
-    private Node cloneTree(Node node) {
-        if (node == null) return null;
-        Node newNode = new Node(node.key);
-        newNode.isRed = node.isRed;
-        newNode.left = cloneTree(node.left);
-        newNode.right = cloneTree(node.right);
-        return newNode;
+    void append(int op, int depth, long path, int arg) {
+        if (length == codes.length) {
+            codes = Arrays.copyOf(codes, length * 2);
+            paths = Arrays.copyOf(paths, length * 2);
+            args = Arrays.copyOf(args, length * 2);
+        }
+        codes[length] = op | (depth << 3);
+        paths[length] = path;
+        args[length] = arg;
+        length++;
     }
 
-    public void changeStep(int direction) {
-        if (direction == 1 && currentStep < steps.size() - 1) currentStep++;
-        if (direction == -1 && currentStep > 0) currentStep--;
-        TreeState current = steps.get(currentStep);
-        visualizer.updateStep(currentStep);
-        visualizer.repaint();
-        visualizer.setShowIntermediateButton(current.intermediateStates.size() >= 2, current.intermediateStates, current.intermediateRules);
+    boolean needsCheckpoint() {
+        return length - checkpointOps[checkpointCount - 1] >= CHECKPOINT_INTERVAL;
     }
 
-    public Node getCurrentTree() {
-        return (!steps.isEmpty()) ? steps.get(currentStep).treeClone : null;
+    // snapshot muss dem Zustand nach allen bisherigen Operationen entsprechen.
+    void checkpoint(Node snapshot) {
+        addCheckpoint(length, snapshot);
     }
 
-    public List<String> getCurrentRuleMessages() {
-        return (!steps.isEmpty()) ? steps.get(currentStep).ruleMessages : new ArrayList<>();
+    void addCheckpoint(int op, Node snapshot) {
+        if (checkpointCount > 0 && checkpointOps[checkpointCount - 1] == op) {
+            checkpointTrees[checkpointCount - 1] = snapshot;
+            return;
+        }
+        if (checkpointCount == checkpointOps.length) {
+            checkpointOps = Arrays.copyOf(checkpointOps, checkpointCount * 2);
+            checkpointTrees = Arrays.copyOf(checkpointTrees, checkpointCount * 2);
+        }
+        checkpointOps[checkpointCount] = op;
+        checkpointTrees[checkpointCount] = snapshot;
+        checkpointCount++;
     }
 
-}
+    void reset(Node snapshot) {
+        append(RESET, 0, 0, 0);
+        checkpoint(snapshot);
+    }
 
-// ----------------------
-// GUI – TreeVisualizer
-// ----------------------
-class TreeVisualizer extends JPanel {
-    private RedBlackTree tree;
-    private int stepNumber = 0;
-    private final int nodeRadius = 15;
-    private JButton btnIntermediate = new JButton(Localization.get("btnShowIntermediate"));
-    private List<Node> currentIntermediateStates = new ArrayList<>();
-    private List<String> currentRuleMessages = new ArrayList<>();
+    // Zustand nach den ersten index Operationen.
+    Node stateAt(int index) {
+        Node state = cache.get(index);
+        if (state != null || cache.containsKey(index)) return state;
+        int lo = 0;
+        int hi = checkpointCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (checkpointOps[mid] <= index) lo = mid;
+            else hi = mid - 1;
+        }
+        state = checkpointTrees[lo];
+        for (int i = checkpointOps[lo]; i < index; i++) {
+            state = apply(state, codes[i] & 7, paths[i], 0, codes[i] >>> 3, args[i]);
+        }
+        cache.put(index, state);
+        return state;
+    }
 
-    public TreeVisualizer(RedBlackTree tree) {
-        this.tree = tree;
-        setBackground(new Color(40, 40, 40));
-        setLayout(null); // Absolute Positionierung
+    // Für TreeSerializer
+    boolean hasCheckpoint(int op) {
+        return Arrays.binarySearch(checkpointOps, 0, checkpointCount, op) >= 0;
+    }
 
-        btnIntermediate.setFont(btnIntermediate.getFont().deriveFont(10f));
-        btnIntermediate.addActionListener(e -> {
-            IntermediateStepsWindow win = new IntermediateStepsWindow(
-                    SwingUtilities.getWindowAncestor(this),
-                    currentIntermediateStates,
-                    currentRuleMessages,
-                    Localization.get("intermediateTitle")
-            );
-            if (btnIntermediate.isEnabled()) {
-                win.setVisible(true);
-            }
-        });
-        btnIntermediate.setVisible(true);
-        add(btnIntermediate);
+    int opCode(int i) {
+        return codes[i] & 7;
     }
 
-    @Override
-    public void doLayout() {
-        super.doLayout();
-        btnIntermediate.setBounds(getWidth() / 2 - 60, getHeight() - 120, 120, 25);
+    int opDepth(int i) {
+        return codes[i] >>> 3;
     }
 
-    public void setTree(RedBlackTree tree) {
-        this.tree = tree;
-        repaint();
+    long opPath(int i) {
+        return paths[i];
     }
 
-    public void updateStep(int step) {
-        this.stepNumber = step;
+    int opArg(int i) {
+        return args[i];
     }
 
-    public void setShowIntermediateButton(boolean show, List<Node> intermediateStates, List<String> ruleMessages){
-        this.currentIntermediateStates = intermediateStates;
-        this.currentRuleMessages = ruleMessages;
-        btnIntermediate.setVisible(show && intermediateStates.size() >= 2);
-        btnIntermediate.setEnabled(intermediateStates.size() >= 2);
-        invalidate();
-        revalidate();
-        repaint();
+    int checkpointCount() {
+        return checkpointCount;
+    }
 
+    int checkpointOp(int i) {
+        return checkpointOps[i];
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        if (tree != null) {
-            drawTree(g, tree.getCurrentTree(), getWidth() / 2, 80, getWidth() / 4);
-        }
+    Node checkpointTree(int i) {
+        return checkpointTrees[i];
+    }
 
-        Font orig = g.getFont();
-        Font small = orig.deriveFont(Font.PLAIN, 10f);
-        g.setFont(small);
-
-        String fixedRulesStr = Localization.get("fixedRules");
-        String[] fixedRulesLines = fixedRulesStr.split("\n");
-        int fixedRulesX = 20;
-        int fixedRulesY = getHeight() - (fixedRulesLines.length * 12 + 20);
-        List<String> activeRules = tree.getCurrentRuleMessages();
-
-        for (String line : fixedRulesLines) {
-            boolean isCaseLine = Main.LANGUAGE.equals("DE") ? line.contains("Fall") : line.contains("Case");
-            if (isCaseLine) {
-                String target = line.matches(".*Fall 1.*|.*Case 1.*") ? (Main.LANGUAGE.equals("DE") ? "Fall 1" : "Case 1") :
-                        line.matches(".*Fall 2.*|.*Case 2.*") ? (Main.LANGUAGE.equals("DE") ? "Fall 2" : "Case 2") :
-                                (Main.LANGUAGE.equals("DE") ? "Fall 3" : "Case 3");
-
-                String appended = "";
-                for (String rule : activeRules) {
-                    String[] parts = rule.split(":", 2);
-                    if (parts.length >= 2) {
-                        String stepPart = parts[0].trim();
-                        String casePart = parts[1].trim();
-                        if (casePart.equalsIgnoreCase(target)) {
-                            appended = stepPart;
-                            break;
-                        }
-                    }
-                }
-                if (!appended.isEmpty()) {
-                    line = line + " (" + appended + ")";
-                }
-                g.setColor(Color.YELLOW);
-            } else {
-                g.setColor(Color.LIGHT_GRAY);
+    // Spielt jeden Abschnitt zwischen zwei Checkpoints einmal nach (ohne Cache), z.B. nach dem Laden
+    // einer Datei, und liefert den Zustand nach allen Operationen. Wirft IllegalStateException, wenn
+    // eine Operation nicht zum Baum passt oder ein Checkpoint nicht dem nachgespielten Abschnitt davor
+    // entspricht. Ein RESET steht immer direkt vor einem Checkpoint; dieser ersetzt den Baum.
+    Node replayAll() {
+        Node state = null;
+        for (int c = 0; c < checkpointCount; c++) {
+            int start = checkpointOps[c];
+            boolean reset = start > 0 && (codes[start - 1] & 7) == RESET;
+            if (c > 0 && !reset && !sameTree(state, checkpointTrees[c])) {
+                throw new IllegalStateException("Checkpoint bei Operation " + start + " passt nicht zum Protokoll");
+            }
+            int end = (c + 1 < checkpointCount) ? checkpointOps[c + 1] : length;
+            state = checkpointTrees[c];
+            for (int i = start; i < end; i++) {
+                int op = codes[i] & 7;
+                if (op != RESET) state = apply(state, op, paths[i], 0, codes[i] >>> 3, args[i]);
             }
-            g.drawString(line, fixedRulesX, fixedRulesY);
-            fixedRulesY += 12;
-        }
-
-        String[] legendLines = new String[]{
-                Localization.get("legendTitle"),
-                Localization.get("legendArrowLeft"),
-                Localization.get("legendArrowRight"),
-                Localization.get("legendEnterNew"),
-                Localization.get("legendEnterAppend"),
-                Localization.get("legendEsc")
-        };
-        int legendX = getWidth() - 220;
-        int legendY = getHeight() - (legendLines.length * 12 + 20);
-        g.setColor(Color.LIGHT_GRAY);
-        for (String l : legendLines) {
-            g.drawString(l, legendX, legendY);
-            legendY += 12;
         }
+        return state;
+    }
 
-        g.setFont(orig);
+    // Gleiche Form, Schlüssel, Farben und Teilbaumgrößen. Geteilte Teilbäume werden übersprungen.
+    static boolean sameTree(Node a, Node b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return a.key == b.key && a.isRed == b.isRed && a.size == b.size
+                && sameTree(a.left, b.left) && sameTree(a.right, b.right);
     }
 
-    private void drawTree(Graphics g, Node node, int x, int y, int xOffset) {
-        if (node == null) return;
-        g.setColor(node.isRed ? Color.RED : Color.BLACK);
-        g.fillOval(x - nodeRadius, y - nodeRadius, nodeRadius * 2, nodeRadius * 2);
-        g.setColor(Color.WHITE);
-        String num = String.valueOf(node.key);
-        int numWidth = g.getFontMetrics().stringWidth(num);
-        int numHeight = g.getFontMetrics().getAscent();
-        g.drawString(num, x - numWidth / 2, y + numHeight / 2 - 2);
-
-        int childY = y + 40;
-        if (node.left != null) {
-            int childX = x - xOffset;
-            drawEdge(g, x, y, childX, childY);
-            drawTree(g, node.left, childX, childY, xOffset / 2);
-        } else {
-            int nilX = x - xOffset;
-            drawEdge(g, x, y, nilX, childY);
-            drawNil(g, nilX, childY);
-        }
+    // Kopiert den Pfad bis zur Zielposition und wendet dort die Operation an.
+    private static Node apply(Node node, int op, long path, int level, int depth, int arg) {
+        if (level == depth) return applyAt(node, op, arg);
+        if (node == null) throw mismatch(op, "Pfad endet vor Ebene " + depth);
+        Node copy = copy(node);
+        if ((path >>> level & 1) != 0) copy.right = apply(node.right, op, path, level + 1, depth, arg);
+        else copy.left = apply(node.left, op, path, level + 1, depth, arg);
+        copy.size = 1 + RedBlackTree.sizeOf(copy.left) + RedBlackTree.sizeOf(copy.right);
+        return copy;
+    }
 
-        if (node.right != null) {
-            int childX = x + xOffset;
-            drawEdge(g, x, y, childX, childY);
-            drawTree(g, node.right, childX, childY, xOffset / 2);
-        } else {
-            int nilX = x + xOffset;
-            drawEdge(g, x, y, nilX, childY);
-            drawNil(g, nilX, childY);
+    private static Node applyAt(Node node, int op, int arg) {
+        if ((op == LINK) != (node == null)) throw mismatch(op, (node == null) ? "kein Knoten" : "Platz belegt");
+        switch (op) {
+            case LINK:
+                return new Node(arg);
+            case RECOLOR: {
+                Node copy = copy(node);
+                copy.isRed = arg != 0;
+                return copy;
+            }
+            case SET_KEY: {
+                Node copy = copy(node);
+                copy.key = arg;
+                return copy;
+            }
+            case SPLICE:
+                if (node.left != null && node.right != null) throw mismatch(op, "zwei Kinder");
+                return (node.left != null) ? node.left : node.right;
+            case ROTATE_LEFT: {
+                if (node.right == null) throw mismatch(op, "kein rechtes Kind");
+                Node top = copy(node.right);
+                Node down = copy(node);
+                down.right = top.left;
+                top.left = down;
+                down.size = 1 + RedBlackTree.sizeOf(down.left) + RedBlackTree.sizeOf(down.right);
+                top.size = 1 + RedBlackTree.sizeOf(top.left) + RedBlackTree.sizeOf(top.right);
+                return top;
+            }
+            case ROTATE_RIGHT: {
+                if (node.left == null) throw mismatch(op, "kein linkes Kind");
+                Node top = copy(node.left);
+                Node down = copy(node);
+                down.left = top.right;
+                top.right = down;
+                down.size = 1 + RedBlackTree.sizeOf(down.left) + RedBlackTree.sizeOf(down.right);
+                top.size = 1 + RedBlackTree.sizeOf(top.left) + RedBlackTree.sizeOf(top.right);
+                return top;
+            }
+            default:
+                throw new IllegalStateException("Operation " + op + " kann nicht nachgespielt werden");
         }
     }
 
-    private void drawEdge(Graphics g, int parentX, int parentY, int childX, int childY) {
-        double dx = childX - parentX;
-        double dy = childY - parentY;
-        double dist = Math.sqrt(dx * dx + dy * dy);
-        int startX = (int)Math.round(parentX + (dx / dist * nodeRadius));
-        int startY = (int)Math.round(parentY + (dy / dist * nodeRadius));
-        int endX = (int)Math.round(childX - (dx / dist * nodeRadius));
-        int endY = (int)Math.round(childY - (dy / dist * nodeRadius));
-        g.setColor(Color.WHITE);
-        g.drawLine(startX, startY, endX, endY);
+    private static IllegalStateException mismatch(int op, String reason) {
+        return new IllegalStateException("Operation " + op + " passt nicht zum Baum: " + reason);
     }
 
-    private void drawNil(Graphics g, int x, int y) {
-        g.setColor(Color.GRAY);
-        g.fillOval(x - nodeRadius, y - nodeRadius, nodeRadius * 2, nodeRadius * 2);
-        g.setColor(Color.WHITE);
-        String txt = "NIL";
-        int w = g.getFontMetrics().stringWidth(txt);
-        int h = g.getFontMetrics().getAscent();
-        g.drawString(txt, x - w / 2, y + h / 2 - 2);
+    // Nicht in TreeMetrics.snapshotNode gezählt: Nachspielen für die Anzeige erzeugt keine neuen
+    // Zustände, der Zähler misst nur die Snapshots des lebenden Baums (RedBlackTree.snapshotTree).
+    private static Node copy(Node node) {
+        Node copy = new Node(node.key);
+        copy.isRed = node.isRed;
+        copy.size = node.size;
+        copy.left = node.left;
+        copy.right = node.right;
+        return copy;
     }
 }
 
-// ----------------------
-// Fenster für Zwischenzustände
-// ----------------------
-class IntermediateStepsWindow extends JDialog {
-    private List<Node> intermediateStates;
-    private List<String> ruleMessages;
-    private int currentIndex = 0;
-    private IntermediateTreePanel treePanel;
-    private JLabel lblDescription = new JLabel("", SwingConstants.CENTER);
-
-    public IntermediateStepsWindow(Window owner, List<Node> intermediateStates, List<String> ruleMessages, String title) {
-        super(owner, title, ModalityType.APPLICATION_MODAL);
-        this.intermediateStates = intermediateStates;
-        this.ruleMessages = ruleMessages;
-
-        setSize(800, 600);
-        setLocationRelativeTo(owner);
-        setLayout(new BorderLayout());
+// Beobachter für RedBlackTree: wird nur benachrichtigt, wenn sich der angezeigte Schritt ändert.
+interface TreeStepListener {
+    void stepShown(int step, TreeState state);
+}
 
-        treePanel = new IntermediateTreePanel(intermediateStates.get(currentIndex));
-        add(treePanel, BorderLayout.CENTER);
+// Unveränderlicher, veröffentlichter Baumzustand für Leser auf beliebigen Threads.
+// Die Knoten stammen aus snapshotTree und werden nach der Veröffentlichung nie mehr verändert.
+final class TreeSnapshot {
+    static final TreeSnapshot EMPTY = new TreeSnapshot(null, 0);
 
-        JPanel bottomPanel = new JPanel(new BorderLayout());
-        bottomPanel.setBackground(new Color(40, 40, 40));
+    private final Node root;
+    private final int size;
 
-        lblDescription.setFont(new Font("SansSerif", Font.PLAIN, 12));
-        lblDescription.setForeground(Color.YELLOW);
-        bottomPanel.add(lblDescription, BorderLayout.CENTER);
+    TreeSnapshot(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
 
-        JLabel lblInst = new JLabel(Localization.get("intermediateLegend"), SwingConstants.CENTER);
-        lblInst.setFont(new Font("SansSerif", Font.PLAIN, 10));
-        lblInst.setForeground(Color.LIGHT_GRAY);
-        bottomPanel.add(lblInst, BorderLayout.SOUTH);
+    public Node root() {
+        return root;
+    }
 
-        add(bottomPanel, BorderLayout.SOUTH);
+    public int size() {
+        return size;
+    }
 
-        updateRuleLabel();
+    public boolean contains(int key) {
+        Node node = root;
+        while (node != null) {
+            if (key == node.key) return true;
+            node = (key < node.key) ? node.left : node.right;
+        }
+        return false;
+    }
 
-        addKeyListener(new KeyAdapter() {
-            public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-                    if (currentIndex < intermediateStates.size() - 1) {
-                        currentIndex++;
-                        treePanel.setTreeState(intermediateStates.get(currentIndex));
-                        updateRuleLabel();
-                    }
-                } else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-                    if (currentIndex > 0) {
-                        currentIndex--;
-                        treePanel.setTreeState(intermediateStates.get(currentIndex));
-                        updateRuleLabel();
-                    }
-                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
-                    dispose();
-                }
-            }
-        });
+    // Ruft action in aufsteigender Reihenfolge für alle Schlüssel in [lo, hi] auf.
+    public void forEachInRange(int lo, int hi, IntConsumer action) {
+        forEachInRange(root, lo, hi, action);
+    }
 
-        setFocusable(true);
-        requestFocusInWindow();
+    public int countInRange(int lo, int hi) {
+        if (lo > hi) return 0;
+        return (hi == Integer.MAX_VALUE ? size : RedBlackTree.rank(root, hi + 1)) - RedBlackTree.rank(root, lo);
+    }
 
-        addWindowListener(new java.awt.event.WindowAdapter() {
-            @Override
-            public void windowClosed(java.awt.event.WindowEvent e) {
-                if (owner instanceof JFrame) {
-                    ((JFrame) owner).requestFocusInWindow();
-                }
-            }
+    public int rank(int key) {
+        return RedBlackTree.rank(root, key);
+    }
 
-            @Override
-            public void windowClosing(java.awt.event.WindowEvent e) {
-                if (owner instanceof JFrame) {
-                    ((JFrame) owner).requestFocusInWindow();
-                }
-            }
-        });
+    public int select(int index) {
+        return RedBlackTree.select(root, index);
     }
 
-    private void updateRuleLabel() {
-        if (currentIndex < ruleMessages.size()) {
-            String ruleKey = ruleMessages.get(currentIndex); // z. B. "Fall 2" oder "Case 3"
-            String[] allRules = Localization.get("fixedRules").split("\n");
-            for (String line : allRules) {
-                if (line.contains(ruleKey)) {
-                    lblDescription.setText(line);
-                    return;
-                }
+    private static void forEachInRange(Node node, int lo, int hi, IntConsumer action) {
+        while (node != null) {
+            if (node.key < lo) {
+                node = node.right;
+            } else if (node.key > hi) {
+                node = node.left;
+            } else {
+                forEachInRange(node.left, lo, hi, action);
+                action.accept(node.key);
+                node = node.right;
             }
-            lblDescription.setText(ruleKey); // Fallback
-        } else {
-            lblDescription.setText("");
+        }
+    }
+}
+
+class RedBlackTree extends LinkedRedBlackTree<Node> {
+    private TreeStepListener listener;
+    private List<TreeState> steps = new ArrayList<>();
+    private int currentStep = 0;
+    private boolean concurrentReads = false;
+    private boolean batchPending;
+    // Protokoll aller Änderungen; historyStale = der Baum wurde ohne Protokoll verändert und
+    // braucht vor der nächsten protokollierten Änderung einen neuen Checkpoint.
+    private TreeHistory history = new TreeHistory();
+    private boolean historyStale;
+    // Ziel für fixed() während insert/delete; null = nicht aufzeichnen (Batches).
+    private List<RuleCase> recordRules;
+    private List<Integer> recordStates;
+    private volatile TreeSnapshot published = TreeSnapshot.EMPTY;
+    // Prüft nach jeder Änderung die Invarianten (TreeVerifier), z.B. mit -Drbtree.verify=true.
+    private boolean verifying = Boolean.getBoolean("rbtree.verify");
+
+    // Headless: ohne Beobachter, z.B. für Massen-Ladevorgänge. Ein Visualizer kann später
+    // über setListener angehängt werden.
+    public RedBlackTree() {
+    }
+
+    public RedBlackTree(TreeStepListener listener) {
+        this.listener = listener;
+    }
+
+    public void setVerifying(boolean verifying) {
+        this.verifying = verifying;
+    }
+
+    public void setListener(TreeStepListener listener) {
+        this.listener = listener;
+        if (!steps.isEmpty()) fireStepShown();
+    }
+
+    public void insert(int key) {
+        TreeMetrics.InsertEvent event = TreeMetrics.beginInsert();
+        long start = System.nanoTime();
+        syncHistory();
+        List<RuleCase> rules = new ArrayList<>();
+        List<Integer> interStates = new ArrayList<>();
+
+        Node newNode = new Node(key);
+        link(newNode);
+        recordRules = rules;
+        recordStates = interStates;
+        fixInsert(newNode);
+        recordRules = null;
+        recordStates = null;
+        if (rules.size() >= 2) interStates.add(history.length());
+        if (verifying) TreeVerifier.verifyAround(newNode, root);
+
+        addStep(rules, interStates);
+        TreeMetrics.inserted(event, key, rules.size(), System.nanoTime() - start);
+    }
+
+    // Fügt alle Schlüssel ohne Zeichnen und ohne Schrittaufzeichnung ein. Am Ende wird genau ein
+    // Schritt mit dem fertigen Baum gespeichert, damit ein Visualizer ihn anzeigen kann.
+    public void insertAll(int[] keys) {
+        insertBatch(keys, keys.length);
+        endBatches();
+    }
+
+    // Fügt keys[0, count) ohne eigenen Schritt ein (z. B. als BatchSink des KeyParser).
+    // endBatches() schließt alle bisherigen Batches als einen gemeinsamen Schritt ab.
+    public void insertBatch(int[] keys, int count) {
+        if (count > 0) historyStale = true;
+        for (int i = 0; i < count; i++) {
+            Node newNode = new Node(keys[i]);
+            link(newNode);
+            fixInsert(newNode);
+            if (verifying) TreeVerifier.verifyAround(newNode, root);
+            if (concurrentReads) publish();
+        }
+        if (count > 0) {
+            setRed(root, false);
+            batchPending = true;
+        }
+    }
+
+    public void endBatches() {
+        if (!batchPending) return;
+        batchPending = false;
+        addStep(new ArrayList<>(), new ArrayList<>());
+    }
+
+    // Entfernt ein Vorkommen von key. Die Fälle der Lösch-Reparatur werden wie beim Einfügen als
+    // eigener Schritt samt Zwischenzuständen aufgezeichnet. Liefert false, wenn key fehlt.
+    public boolean delete(int key) {
+        Node node = root;
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        if (node == null) return false;
+
+        syncHistory();
+        List<RuleCase> rules = new ArrayList<>();
+        List<Integer> interStates = new ArrayList<>();
+
+        // Bei zwei Kindern wird der Nachfolger entfernt (moveKey), geprüft wird ab dessen parent.
+        Node removed = node;
+        if (node.left != null && node.right != null) {
+            removed = node.right;
+            while (removed.left != null) removed = removed.left;
+        }
+        Node parent = removed.parent;
+        recordRules = rules;
+        recordStates = interStates;
+        remove(node);
+        recordRules = null;
+        recordStates = null;
+        if (rules.size() >= 2) interStates.add(history.length());
+        if (verifying) TreeVerifier.verifyAround(parent, root);
+
+        addStep(rules, interStates);
+        return true;
+    }
+
+    // Baut aus aufsteigend sortierten Schlüsseln (Duplikate erlaubt) in O(n) einen perfekt
+    // balancierten Baum, ohne Rotationen. Nur die unterste, unvollständige Ebene wird rot gefärbt,
+    // alle anderen Knoten sind schwarz – so haben alle Pfade dieselbe Schwarzhöhe.
+    // Ist der Baum nicht leer oder die Eingabe unsortiert, wird auf insertAll zurückgegriffen.
+    public void buildFromSorted(int[] keys) {
+        if (root != null || !isSorted(keys)) {
+            insertAll(keys);
+            return;
+        }
+        if (keys.length == 0) return;
+        root = buildBalanced(keys, 0, keys.length);
+        historyStale = true;
+        if (verifying) TreeVerifier.verifyAll(root, true);
+
+        addStep(new ArrayList<>(), new ArrayList<>());
+    }
+
+    // Fügt die Schlüssel parallel ein: Fork-Join sortiert Teilstücke, baut daraus Teilbäume und
+    // vereinigt sie per Split/Join (siehe ParallelTreeBuilder). Es entsteht ein einzelner Schritt.
+    public void insertAllParallel(int[] keys) {
+        if (keys.length == 0) return;
+        mergeParallel(ParallelTreeBuilder.build(keys));
+    }
+
+    // Wie insertAllParallel, zerlegt aber auch die kommagetrennte Eingabe parallel.
+    // Ungültige Einträge werden in invalidTokens gesammelt.
+    public void loadParallel(String input, InvalidTokens invalidTokens) {
+        Node loaded = ParallelTreeBuilder.load(input, invalidTokens);
+        if (loaded != null) mergeParallel(loaded);
+    }
+
+    private void mergeParallel(Node loaded) {
+        root = ParallelTreeBuilder.union(root, loaded);
+        historyStale = true;
+        root.parent = null;
+        setRed(root, false);
+        if (verifying) TreeVerifier.verifyAll(root, true);
+        addStep(new ArrayList<>(), new ArrayList<>());
+    }
+
+    // Perfekt balancierter Baum aus keys[from, to) (aufsteigend sortiert), Färbung wie bei
+    // buildFromSorted. Die Wurzel hat keinen parent.
+    static Node buildBalanced(int[] keys, int from, int to) {
+        int count = to - from;
+        if (count <= 0) return null;
+        int maxDepth = 31 - Integer.numberOfLeadingZeros(count);
+        boolean lastLevelFull = count == (1L << (maxDepth + 1)) - 1;
+        return buildBalanced(keys, from, to - 1, 0, lastLevelFull ? -1 : maxDepth, null);
+    }
+
+    private static Node buildBalanced(int[] keys, int lo, int hi, int depth, int redDepth, Node parent) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node(keys[mid]);
+        node.isRed = depth == redDepth;
+        node.size = hi - lo + 1;
+        node.parent = parent;
+        node.left = buildBalanced(keys, lo, mid - 1, depth + 1, redDepth, node);
+        node.right = buildBalanced(keys, mid + 1, hi, depth + 1, redDepth, node);
+        return node;
+    }
+
+    private static boolean isSorted(int[] keys) {
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i] < keys[i - 1]) return false;
+        }
+        return true;
+    }
+
+    private void addStep(List<RuleCase> rules, List<Integer> interStates) {
+        syncHistory();
+        if (history.needsCheckpoint()) history.checkpoint(snapshotTree(root));
+        int[] interOps = new int[interStates.size()];
+        for (int i = 0; i < interOps.length; i++) interOps[i] = interStates.get(i);
+        steps.add(new TreeState(history, history.length(), rules, interOps));
+        publish();
+        // Angezeigt wird weiterhin currentStep – nur der allererste Schritt ändert die Anzeige.
+        if (steps.size() == 1) fireStepShown();
+    }
+
+    // Anzahl der Schlüssel, die kleiner als key sind. O(log n) über die Teilbaumgrößen.
+    public int rank(int key) {
+        return rank(root, key);
+    }
+
+    // Der index-kleinste Schlüssel (0-basiert, Duplikate zählen einzeln). O(log n).
+    public int select(int index) {
+        return select(root, index);
+    }
+
+    static int rank(Node node, int key) {
+        int rank = 0;
+        while (node != null) {
+            if (key <= node.key) {
+                node = node.left;
+            } else {
+                rank += sizeOf(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    static int select(Node node, int index) {
+        return selectNode(node, index).key;
+    }
+
+    private static Node selectNode(Node node, int index) {
+        if (index < 0 || index >= sizeOf(node)) {
+            throw new IndexOutOfBoundsException("Index " + index + ", Größe " + sizeOf(node));
+        }
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // ----- Suche und Traversierung auf dem aktuellen Baum -----
+    // Die Iteratoren laufen über parent-Zeiger ohne Rekursion und ohne Zwischenlisten. Der Baum
+    // darf währenddessen nicht verändert werden (für nebenläufiges Lesen: reader()).
+
+    public boolean contains(int key) {
+        Node node = root;
+        while (node != null) {
+            if (key == node.key) return true;
+            node = (key < node.key) ? node.left : node.right;
+        }
+        return false;
+    }
+
+    // Größter Schlüssel <= key.
+    public OptionalInt floor(int key) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.key <= key) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return (candidate == null) ? OptionalInt.empty() : OptionalInt.of(candidate.key);
+    }
+
+    // Kleinster Schlüssel >= key.
+    public OptionalInt ceiling(int key) {
+        Node node = ceilingNode(key);
+        return (node == null) ? OptionalInt.empty() : OptionalInt.of(node.key);
+    }
+
+    // Alle Schlüssel in [lo, hi] aufsteigend, lazy über Nachfolger-Zeiger.
+    public PrimitiveIterator.OfInt rangeIterator(int lo, int hi) {
+        return new RangeIterator(ceilingNode(lo), hi);
+    }
+
+    public IntStream range(int lo, int hi) {
+        return StreamSupport.intStream(rangeSpliterator(lo, hi), false);
+    }
+
+    // Spliterator über [lo, hi], der über die Teilbaumgrößen halbiert wird – parallele Streams
+    // verteilen große Bereiche so auf mehrere Kerne.
+    public Spliterator.OfInt rangeSpliterator(int lo, int hi) {
+        if (lo > hi) return new SubtreeSpliterator(root, 0, 0);
+        int from = rank(root, lo);
+        int to = (hi == Integer.MAX_VALUE) ? size() : rank(root, hi + 1);
+        return new SubtreeSpliterator(root, from, to);
+    }
+
+    private Node ceilingNode(int key) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.key >= key) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) node = node.left;
+            return node;
+        }
+        Node parent = node.parent;
+        while (parent != null && node == parent.right) {
+            node = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    private static final class RangeIterator implements PrimitiveIterator.OfInt {
+        private Node next;
+        private final int hi;
+
+        RangeIterator(Node first, int hi) {
+            this.next = first;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && next.key <= hi;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int key = next.key;
+            next = successor(next);
+            return key;
+        }
+    }
+
+    // Deckt die In-Order-Positionen [from, to) ab. Der Startknoten wird erst beim ersten Zugriff
+    // per selectNode gesucht (O(log n)), danach geht es über successor weiter.
+    private static final class SubtreeSpliterator implements Spliterator.OfInt {
+        private static final int MIN_SPLIT = 1024;
+
+        private final Node root;
+        private int from;
+        private final int to;
+        private Node current;
+
+        SubtreeSpliterator(Node root, int from, int to) {
+            this.root = root;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (from >= to) return false;
+            if (current == null) current = selectNode(root, from);
+            action.accept(current.key);
+            current = successor(current);
+            from++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            if (from >= to) return;
+            Node node = (current != null) ? current : selectNode(root, from);
+            for (int i = from; i < to; i++) {
+                action.accept(node.key);
+                node = successor(node);
+            }
+            from = to;
+            current = null;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            if (to - from < 2 * MIN_SPLIT) return null;
+            int mid = (from + to) >>> 1;
+            SubtreeSpliterator prefix = new SubtreeSpliterator(root, from, mid);
+            prefix.current = current;
+            from = mid;
+            current = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            return null;
+        }
+    }
+
+    // Nebenläufiger Lesemodus: nach jeder Änderung wird ein unveränderlicher Snapshot (Path-Copying,
+    // O(log n) neue Knoten) atomar veröffentlicht. Leser auf anderen Threads arbeiten nur auf diesem
+    // Snapshot und blockieren den schreibenden Thread nie. Geschrieben wird weiterhin von genau
+    // einem Thread.
+    public void setConcurrentReads(boolean enabled) {
+        concurrentReads = enabled;
+        publish();
+    }
+
+    // Zuletzt veröffentlichter Stand; ohne nebenläufigen Lesemodus TreeSnapshot.EMPTY.
+    public TreeSnapshot reader() {
+        return published;
+    }
+
+    private void publish() {
+        if (concurrentReads) published = new TreeSnapshot(snapshotTree(root), size());
+    }
+
+    private void fireStepShown() {
+        if (listener != null) listener.stepShown(currentStep, steps.get(currentStep));
+    }
+
+    // Iterativer Abstieg; verändert wird nur der Elternknoten des neuen Blatts.
+    // Der Pfad für das Protokoll fällt dabei mit ab.
+    private void link(Node newNode) {
+        Node parent = null;
+        Node cur = root;
+        int depth = 0;
+        long path = 0;
+        while (cur != null) {
+            cur.size++;
+            parent = cur;
+            if (newNode.key < cur.key) {
+                cur = cur.left;
+            } else {
+                path |= 1L << depth;
+                cur = cur.right;
+            }
+            depth++;
+        }
+        newNode.parent = parent;
+        if (parent == null) root = newNode;
+        else if (newNode.key < parent.key) parent.left = newNode;
+        else parent.right = newNode;
+        invalidate(parent);
+        if (!historyStale) history.append(TreeHistory.LINK, depth, path, newNode.key);
+    }
+
+    // ----- Einhängpunkte der gemeinsamen Balancierung (LinkedRedBlackTree) -----
+    // Jede Änderung wird protokolliert (solange das Protokoll aktuell ist), markiert die Snapshots
+    // der betroffenen Knoten als veraltet und geht in TreeMetrics ein. Die Regelfälle werden nur
+    // während insert/delete in recordRules gesammelt, Texte entstehen erst beim Anzeigen.
+
+    // Zählt den Fall für TreeMetrics immer, aufgezeichnet wird er nur mit recordRules.
+    @Override
+    protected void fixed(RuleCase rule) {
+        TreeMetrics.fixup(rule);
+        if (recordRules == null) return;
+        recordRules.add(rule);
+        recordStates.add(history.length());
+    }
+
+    @Override
+    protected void beforeRotate(Node node, boolean left) {
+        TreeMetrics.rotation(left);
+        log(left ? TreeHistory.ROTATE_LEFT : TreeHistory.ROTATE_RIGHT, node, 0);
+    }
+
+    @Override
+    protected void afterRotate(Node node, Node top) {
+        invalidate(node);
+        invalidate(top);
+    }
+
+    // Vor dem Ausschneiden, solange der Pfad über parent noch stimmt.
+    @Override
+    protected void beforeSplice(Node node) {
+        log(TreeHistory.SPLICE, node, 0);
+        invalidate(node.parent);
+    }
+
+    @Override
+    protected void moveKey(Node from, Node to) {
+        to.key = from.key;
+        invalidate(to);
+        log(TreeHistory.SET_KEY, to, to.key);
+    }
+
+    @Override
+    protected String format(Node node) {
+        return String.valueOf(node.key);
+    }
+
+    private void log(int op, Node node, int arg) {
+        if (!historyStale) history.append(op, node, arg);
+    }
+
+    // Schließt Änderungen ohne Protokoll mit einem Checkpoint des aktuellen Baums ab.
+    private void syncHistory() {
+        if (!historyStale) return;
+        history.reset(snapshotTree(root));
+        historyStale = false;
+    }
+
+    @Override
+    protected void setRed(Node node, boolean red) {
+        if (node.isRed == red) return;
+        TreeMetrics.recolor();
+        node.isRed = red;
+        invalidate(node);
+        log(TreeHistory.RECOLOR, node, red ? 1 : 0);
+    }
+
+    // Markiert den Knoten und seine Vorfahren als verändert. Ist ein Knoten bereits markiert,
+    // sind es auch alle seine Vorfahren – der Aufstieg kann dort abbrechen.
+    private void invalidate(Node node) {
+        while (node != null && node.shared != null) {
+            node.shared = null;
+            node = node.parent;
+        }
+    }
+
+    // Unveränderlicher Snapshot des aktuellen Baums, unabhängig von der Schrittliste.
+    public Node snapshot() {
+        return snapshotTree(root);
+    }
+
+    // Path-Copying: kopiert nur die seit dem letzten Snapshot veränderten Knoten (O(log n) pro
+    // Einfügeschritt), alle anderen Teilbäume werden vom vorherigen Snapshot übernommen.
+    // Snapshot-Knoten werden nie verändert und haben keinen parent.
+    private Node snapshotTree(Node node) {
+        if (node == null) return null;
+        if (node.shared != null) return node.shared;
+        TreeMetrics.snapshotNode();
+        Node copy = new Node(node.key);
+        copy.isRed = node.isRed;
+        copy.size = node.size;
+        copy.left = snapshotTree(node.left);
+        copy.right = snapshotTree(node.right);
+        node.shared = copy;
+        return copy;
+    }
+
+    public int getStepCount() {
+        return steps.size();
+    }
+
+    public int getCurrentStep() {
+        return currentStep;
+    }
+
+    // Für TreeSerializer; die Liste wird nicht kopiert.
+    public List<TreeState> getSteps() {
+        return steps;
+    }
+
+    // Für TreeSerializer. Offene Batches werden vorher mit einem Checkpoint abgeschlossen.
+    public TreeHistory getHistory() {
+        syncHistory();
+        return history;
+    }
+
+    // Stellt eine gespeicherte Sitzung wieder her. Der lebende Baum wird aus snapshot (Zustand am
+    // Ende des Protokolls) aufgebaut, jeder Knoten merkt sich dabei seine Snapshot-Kopie –
+    // folgende Snapshots teilen also weiter.
+    public void restore(TreeHistory log, List<TreeState> states, int step, Node snapshot) {
+        history = log;
+        historyStale = false;
+        steps = states;
+        currentStep = states.isEmpty() ? 0 : step;
+        root = thaw(snapshot, null);
+        publish();
+        if (!steps.isEmpty()) fireStepShown();
+    }
+
+    private static Node thaw(Node snapshot, Node parent) {
+        if (snapshot == null) return null;
+        Node node = new Node(snapshot.key);
+        node.isRed = snapshot.isRed;
+        node.size = snapshot.size;
+        node.parent = parent;
+        node.shared = snapshot;
+        node.left = thaw(snapshot.left, node);
+        node.right = thaw(snapshot.right, node);
+        return node;
+    }
+
+    public void showStep(int step) {
+        if (step < 0 || step >= steps.size()) return;
+        currentStep = step;
+        fireStepShown();
+    }
+
+    public void changeStep(int direction) {
+        if (steps.isEmpty()) return;
+        if (direction == 1 && currentStep < steps.size() - 1) currentStep++;
+        if (direction == -1 && currentStep > 0) currentStep--;
+        fireStepShown();
+    }
+
+    public Node getCurrentTree() {
+        return (!steps.isEmpty()) ? steps.get(currentStep).tree() : null;
+    }
+
+    public List<String> getCurrentRuleMessages() {
+        return (!steps.isEmpty()) ? steps.get(currentStep).ruleMessages() : new ArrayList<>();
+    }
+
+    public TreeState getCurrentState() {
+        return (!steps.isEmpty()) ? steps.get(currentStep) : null;
+    }
+
+}
+
+// ----------------------
+// Prüfung der Invarianten
+// ----------------------
+// Prüft die Regeln aus "fixedRules" (Localization) sowie Suchbaum-Ordnung, Teilbaumgrößen und
+// parent-Verweise. Ein Verstoß wirft IllegalStateException mit der verletzten Regel.
+// verifyAround ist die inkrementelle Variante für den lebenden Baum nach einer Änderung: Einfügen
+// und Löschen samt Reparatur verändern nur Knoten auf dem Pfad von der Änderungsstelle zur Wurzel
+// und deren Kinder (Rotationen und Umfärbungen greifen höchstens ein Kind neben dem Pfad an).
+// Geprüft werden deshalb nur diese O(log n) Knoten; die Schwarzhöhe eines Teilbaums wird dabei
+// über den linken Rand bestimmt (O(log n)), der Teilbaum darunter war vor der Änderung gültig.
+// Insgesamt O(log² n) pro Änderung statt O(n) für verifyAll.
+final class TreeVerifier {
+    private TreeVerifier() {
+    }
+
+    // node: ein Knoten, der nach der Änderung noch im Baum hängt (z.B. der neue Knoten oder der
+    // parent des entfernten Knotens); null prüft nur die Wurzel.
+    static void verifyAround(Node node, Node root) {
+        if (root == null) return;
+        if (root.isRed) throw violation("Regel 2", "die Wurzel " + root.key + " ist rot");
+        if (root.parent != null) throw violation("Struktur", "die Wurzel " + root.key + " hat einen parent");
+        Node top = root;
+        for (Node ancestor = (node != null) ? node : root; ancestor != null; ancestor = ancestor.parent) {
+            verifyLocal(ancestor);
+            verifyLocal(ancestor.left);
+            verifyLocal(ancestor.right);
+            top = ancestor;
+        }
+        if (top != root) throw violation("Struktur", "Knoten " + node.key + " hängt nicht am Baum");
+    }
+
+    // Vollständige Prüfung in O(n), z.B. nach Massen-Ladevorgängen oder am Ende eines Stresstests.
+    // Mit parents werden auch die parent-Verweise geprüft (nur im lebenden Baum vorhanden).
+    // Liefert die Schwarzhöhe (NIL-Blätter mitgezählt).
+    static int verifyAll(Node root, boolean parents) {
+        if (root == null) return 1;
+        if (root.isRed) throw violation("Regel 2", "die Wurzel " + root.key + " ist rot");
+        Walk walk = new Walk(parents, true, 0);
+        return walk.visit(root, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // Zwischenzustand aus TreeState.intermediateStates: Während der Reparatur darf genau eine
+    // Rot-Rot-Kante bestehen und die Wurzel rot sein. Beim Einfügen bleibt die Schwarzhöhe in jedem
+    // Zwischenzustand erhalten, beim Löschen fehlt bis zum Ende ein Schwarz ("doppeltes Schwarz"),
+    // dort wird sie daher nicht geprüft.
+    static void verifyIntermediate(Node root, boolean insertion) {
+        if (root == null) return;
+        new Walk(false, insertion, 1).visit(root, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static void verifyLocal(Node node) {
+        if (node == null) return;
+        Node left = node.left;
+        Node right = node.right;
+        if (node.isRed && (isRed(left) || isRed(right))) {
+            throw violation("Regel 4", "der rote Knoten " + node.key + " hat ein rotes Kind");
+        }
+        if (left != null && (left.parent != node || left.key > node.key)) {
+            throw violation("Struktur", "falsches linkes Kind " + left.key + " unter " + node.key);
+        }
+        if (right != null && (right.parent != node || right.key < node.key)) {
+            throw violation("Struktur", "falsches rechtes Kind " + right.key + " unter " + node.key);
+        }
+        if (node.size != 1 + RedBlackTree.sizeOf(left) + RedBlackTree.sizeOf(right)) {
+            throw violation("Struktur", "falsche Teilbaumgröße " + node.size + " bei " + node.key);
+        }
+        if (spineBlackHeight(left) != spineBlackHeight(right)) {
+            throw violation("Regel 5", "ungleiche Schwarzhöhe unter " + node.key);
+        }
+    }
+
+    private static int spineBlackHeight(Node node) {
+        int height = 1;
+        for (; node != null; node = node.left) {
+            if (!node.isRed) height++;
+        }
+        return height;
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.isRed;
+    }
+
+    private static IllegalStateException violation(String rule, String detail) {
+        return new IllegalStateException(rule + " verletzt: " + detail);
+    }
+
+    // Rekursiver Durchlauf mit Schlüsselgrenzen [lo, hi]; Duplikate dürfen nach Rotationen auf
+    // beiden Seiten liegen, daher sind die Grenzen inklusiv.
+    private static final class Walk {
+        private final boolean parents;
+        private final boolean blackHeight;
+        private int redRedAllowed;
+
+        Walk(boolean parents, boolean blackHeight, int redRedAllowed) {
+            this.parents = parents;
+            this.blackHeight = blackHeight;
+            this.redRedAllowed = redRedAllowed;
+        }
+
+        int visit(Node node, Node parent, long lo, long hi) {
+            if (node == null) return 1;
+            if (node.key < lo || node.key > hi) {
+                throw violation("Struktur", "Schlüssel " + node.key + " liegt außerhalb [" + lo + ", " + hi + "]");
+            }
+            if (parents && node.parent != parent) {
+                throw violation("Struktur", "falscher parent bei " + node.key);
+            }
+            if (node.isRed && parent != null && parent.isRed && redRedAllowed-- <= 0) {
+                throw violation("Regel 4", "der rote Knoten " + parent.key + " hat ein rotes Kind");
+            }
+            int left = visit(node.left, node, lo, node.key);
+            int right = visit(node.right, node, node.key, hi);
+            if (blackHeight && left != right) {
+                throw violation("Regel 5", "ungleiche Schwarzhöhe unter " + node.key + " (" + left + " / " + right + ")");
+            }
+            if (node.size != 1 + RedBlackTree.sizeOf(node.left) + RedBlackTree.sizeOf(node.right)) {
+                throw violation("Struktur", "falsche Teilbaumgröße " + node.size + " bei " + node.key);
+            }
+            return left + (node.isRed ? 0 : 1);
+        }
+    }
+}
+
+// ----------------------
+// Bäume mit anderen Schlüsseltypen
+// ----------------------
+// RedBlackTree bleibt die int-Variante mit Schritten, Protokoll und Visualisierung. Für andere
+// Schlüssel gibt es Bäume ohne Schrittaufzeichnung: KeyedRedBlackTree<K> mit Comparator
+// (Strings, zusammengesetzte Schlüssel) und LongRedBlackTree für long-Schlüssel wie Zeitstempel,
+// deren Abstieg ohne Boxing direkt auf long vergleicht. Beide erben die Balancierung von
+// LinkedRedBlackTree; Rotationen und Umfärbungen sehen keine Schlüssel an, nur Abstieg, Suche und
+// rank sind pro Schlüsseltyp ausgeschrieben. Duplikate landen wie bei RedBlackTree rechts.
+// Auch RedBlackTree balanciert hiermit: Über die Einhängpunkte (setRed, beforeRotate/afterRotate,
+// beforeSplice, moveKey, fixed) schreibt es Protokoll, Snapshots, Messwerte und Regelfälle mit. Die
+// Standardfassungen tun nichts außer umzufärben und werden für LongRedBlackTree und
+// KeyedRedBlackTree vom JIT eingebettet.
+// Zur Anzeige liefert display() einen TreeDisplay: einen Node-Snapshot, dessen key die Position
+// in der Sortierung ist, und einen KeyFormatter, der sie in die Beschriftung des Schlüssels übersetzt.
+abstract class LinkedRedBlackTree<N extends LinkedRedBlackTree.Link<N>> {
+    static class Link<N extends Link<N>> {
+        N left, right, parent;
+        boolean isRed = true;
+        // Anzahl der Knoten im Teilbaum inkl. diesem (für rank/select).
+        int size = 1;
+    }
+
+    protected N root;
+
+    public int size() {
+        return sizeOf(root);
+    }
+
+    static int sizeOf(Link<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    // Hängt node als linkes bzw. rechtes Kind von parent ein und stellt die Regeln wieder her.
+    // Die Teilbaumgrößen auf dem Pfad hat der Abstieg der Unterklasse bereits erhöht.
+    protected final void attach(N node, N parent, boolean left) {
+        node.parent = parent;
+        if (parent == null) root = node;
+        else if (left) parent.left = node;
+        else parent.right = node;
+        fixInsert(node);
+    }
+
+    // Entfernt node. Bei zwei Kindern übernimmt node den Schlüssel des Nachfolgers (moveKey) und
+    // stattdessen wird der Nachfolger entfernt.
+    protected final void remove(N node) {
+        if (node.left != null && node.right != null) {
+            N successor = node.right;
+            while (successor.left != null) successor = successor.left;
+            moveKey(successor, node);
+            node = successor;
+        }
+        N child = (node.left != null) ? node.left : node.right;
+        N parent = node.parent;
+        beforeSplice(node);
+        for (N ancestor = parent; ancestor != null; ancestor = ancestor.parent) ancestor.size--;
+        if (child != null) child.parent = parent;
+        if (parent == null) root = child;
+        else if (node == parent.left) parent.left = child;
+        else parent.right = child;
+        if (!node.isRed) {
+            if (child != null && child.isRed) setRed(child, false);
+            else fixDelete(child, parent);
+        }
+        if (root != null) setRed(root, false);
+    }
+
+    protected abstract void moveKey(N from, N to);
+
+    protected abstract String format(N node);
+
+    // Der index-kleinste Knoten (0-basiert, Duplikate zählen einzeln). O(log n).
+    protected final N nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + ", Größe " + size());
+        }
+        N node = root;
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // Snapshot für TreeVisualizer.showDisplay. Alle Beschriftungen werden dabei einmal formatiert. O(n).
+    public final TreeDisplay display() {
+        String[] labels = new String[size()];
+        Node copy = display(root, labels, new int[1]);
+        return new TreeDisplay(copy, index -> labels[index]);
+    }
+
+    private Node display(N node, String[] labels, int[] next) {
+        if (node == null) return null;
+        Node left = display(node.left, labels, next);
+        int index = next[0]++;
+        labels[index] = format(node);
+        Node copy = new Node(index);
+        copy.isRed = node.isRed;
+        copy.size = node.size;
+        copy.left = left;
+        copy.right = display(node.right, labels, next);
+        return copy;
+    }
+
+    // ----- Einhängpunkte für Unterklassen, die Änderungen mitschreiben (siehe RedBlackTree) -----
+
+    protected void setRed(N node, boolean red) {
+        node.isRed = red;
+    }
+
+    protected void beforeRotate(N node, boolean left) {
+    }
+
+    protected void afterRotate(N node, N top) {
+    }
+
+    // node wird gleich ausgeschnitten, parent-Verweise und Pfad sind noch unverändert.
+    protected void beforeSplice(N node) {
+    }
+
+    // Nach jedem angewendeten Fall der Einfüge- bzw. Lösch-Reparatur.
+    protected void fixed(RuleCase rule) {
+    }
+
+    // Stellt die Regeln nach dem Einhängen eines roten Blatts wieder her. Fall 2 rotiert den
+    // Knoten nach außen und geht direkt in Fall 3 über.
+    protected final void fixInsert(N node) {
+        while (node.parent != null && node.parent.isRed) {
+            N grandparent = node.parent.parent;
+            if (grandparent == null) break;
+            N uncle = (node.parent == grandparent.left) ? grandparent.right : grandparent.left;
+
+            if (uncle != null && uncle.isRed) {
+                setRed(node.parent, false);
+                setRed(uncle, false);
+                setRed(grandparent, true);
+                fixed(RuleCase.INSERT_1);
+                node = grandparent;
+            } else {
+                if (node == node.parent.right && node.parent == grandparent.left) {
+                    rotateLeft(node.parent);
+                    fixed(RuleCase.INSERT_2);
+                    node = node.left;
+                } else if (node == node.parent.left && node.parent == grandparent.right) {
+                    rotateRight(node.parent);
+                    fixed(RuleCase.INSERT_2);
+                    node = node.right;
+                }
+                setRed(node.parent, false);
+                setRed(grandparent, true);
+                if (node == node.parent.left) rotateRight(grandparent);
+                else rotateLeft(grandparent);
+                fixed(RuleCase.INSERT_3);
+                break;
+            }
+        }
+        setRed(root, false);
+    }
+
+    // Behebt das "doppelte Schwarz" an node (kann null sein, daher wird parent mitgeführt).
+    private void fixDelete(N node, N parent) {
+        while (node != root && !isRed(node)) {
+            if (node == parent.left) {
+                N sibling = parent.right;
+                if (sibling.isRed) {
+                    setRed(sibling, false);
+                    setRed(parent, true);
+                    rotateLeft(parent);
+                    fixed(RuleCase.DELETE_1);
+                    sibling = parent.right;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    setRed(sibling, true);
+                    fixed(RuleCase.DELETE_2);
+                    node = parent;
+                    parent = node.parent;
+                } else {
+                    if (!isRed(sibling.right)) {
+                        setRed(sibling.left, false);
+                        setRed(sibling, true);
+                        rotateRight(sibling);
+                        fixed(RuleCase.DELETE_3);
+                        sibling = parent.right;
+                    }
+                    setRed(sibling, parent.isRed);
+                    setRed(parent, false);
+                    setRed(sibling.right, false);
+                    rotateLeft(parent);
+                    fixed(RuleCase.DELETE_4);
+                    node = root;
+                }
+            } else {
+                N sibling = parent.left;
+                if (sibling.isRed) {
+                    setRed(sibling, false);
+                    setRed(parent, true);
+                    rotateRight(parent);
+                    fixed(RuleCase.DELETE_1);
+                    sibling = parent.left;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    setRed(sibling, true);
+                    fixed(RuleCase.DELETE_2);
+                    node = parent;
+                    parent = node.parent;
+                } else {
+                    if (!isRed(sibling.left)) {
+                        setRed(sibling.right, false);
+                        setRed(sibling, true);
+                        rotateLeft(sibling);
+                        fixed(RuleCase.DELETE_3);
+                        sibling = parent.left;
+                    }
+                    setRed(sibling, parent.isRed);
+                    setRed(parent, false);
+                    setRed(sibling.left, false);
+                    rotateRight(parent);
+                    fixed(RuleCase.DELETE_4);
+                    node = root;
+                }
+            }
+        }
+        if (node != null) setRed(node, false);
+    }
+
+    private static boolean isRed(Link<?> node) {
+        return node != null && node.isRed;
+    }
+
+    private void rotateLeft(N node) {
+        beforeRotate(node, true);
+        N temp = node.right;
+        node.right = temp.left;
+        if (temp.left != null) temp.left.parent = node;
+        temp.parent = node.parent;
+        if (node.parent == null) root = temp;
+        else if (node == node.parent.left) node.parent.left = temp;
+        else node.parent.right = temp;
+        temp.left = node;
+        node.parent = temp;
+        temp.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+        afterRotate(node, temp);
+    }
+
+    private void rotateRight(N node) {
+        beforeRotate(node, false);
+        N temp = node.left;
+        node.left = temp.right;
+        if (temp.right != null) temp.right.parent = node;
+        temp.parent = node.parent;
+        if (node.parent == null) root = temp;
+        else if (node == node.parent.right) node.parent.right = temp;
+        else node.parent.left = temp;
+        temp.right = node;
+        node.parent = temp;
+        temp.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+        afterRotate(node, temp);
+    }
+}
+
+// Node-Snapshot eines Baums mit beliebigem Schlüsseltyp samt passender Beschriftung.
+final class TreeDisplay {
+    final Node root;
+    final KeyFormatter formatter;
+
+    TreeDisplay(Node root, KeyFormatter formatter) {
+        this.root = root;
+        this.formatter = formatter;
+    }
+}
+
+final class LongRedBlackTree extends LinkedRedBlackTree<LongRedBlackTree.LongNode> {
+    static final class LongNode extends LinkedRedBlackTree.Link<LongNode> {
+        long key;
+
+        LongNode(long key) {
+            this.key = key;
+        }
+    }
+
+    private LongFunction<String> keyFormat = Long::toString;
+
+    // Beschriftung für display(), z.B. für Zeitstempel: key -> Instant.ofEpochMilli(key).toString()
+    public void setKeyFormat(LongFunction<String> keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    public void insert(long key) {
+        LongNode parent = null;
+        LongNode cur = root;
+        boolean left = false;
+        while (cur != null) {
+            cur.size++;
+            parent = cur;
+            left = key < cur.key;
+            cur = left ? cur.left : cur.right;
+        }
+        attach(new LongNode(key), parent, left);
+    }
+
+    // Entfernt ein Vorkommen von key. Liefert false, wenn key fehlt.
+    public boolean delete(long key) {
+        LongNode node = find(key);
+        if (node == null) return false;
+        remove(node);
+        return true;
+    }
+
+    public boolean contains(long key) {
+        return find(key) != null;
+    }
+
+    // Anzahl der Schlüssel, die kleiner als key sind. O(log n).
+    public int rank(long key) {
+        int rank = 0;
+        LongNode node = root;
+        while (node != null) {
+            if (key <= node.key) {
+                node = node.left;
+            } else {
+                rank += sizeOf(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    public long select(int index) {
+        return nodeAt(index).key;
+    }
+
+    private LongNode find(long key) {
+        LongNode node = root;
+        while (node != null && node.key != key) {
+            node = (key < node.key) ? node.left : node.right;
+        }
+        return node;
+    }
+
+    @Override
+    protected void moveKey(LongNode from, LongNode to) {
+        to.key = from.key;
+    }
+
+    @Override
+    protected String format(LongNode node) {
+        return keyFormat.apply(node.key);
+    }
+}
+
+final class KeyedRedBlackTree<K> extends LinkedRedBlackTree<KeyedRedBlackTree.KeyedNode<K>> {
+    static final class KeyedNode<K> extends LinkedRedBlackTree.Link<KeyedNode<K>> {
+        K key;
+
+        KeyedNode(K key) {
+            this.key = key;
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+    private Function<? super K, String> keyFormat = String::valueOf;
+
+    public KeyedRedBlackTree(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    public static <K extends Comparable<? super K>> KeyedRedBlackTree<K> natural() {
+        return new KeyedRedBlackTree<>(Comparator.naturalOrder());
+    }
+
+    public void setKeyFormat(Function<? super K, String> keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    public void insert(K key) {
+        KeyedNode<K> parent = null;
+        KeyedNode<K> cur = root;
+        boolean left = false;
+        while (cur != null) {
+            cur.size++;
+            parent = cur;
+            left = comparator.compare(key, cur.key) < 0;
+            cur = left ? cur.left : cur.right;
+        }
+        attach(new KeyedNode<>(key), parent, left);
+    }
+
+    // Entfernt ein Vorkommen von key. Liefert false, wenn key fehlt.
+    public boolean delete(K key) {
+        KeyedNode<K> node = find(key);
+        if (node == null) return false;
+        remove(node);
+        return true;
+    }
+
+    public boolean contains(K key) {
+        return find(key) != null;
+    }
+
+    // Anzahl der Schlüssel, die kleiner als key sind. O(log n).
+    public int rank(K key) {
+        int rank = 0;
+        KeyedNode<K> node = root;
+        while (node != null) {
+            if (comparator.compare(key, node.key) <= 0) {
+                node = node.left;
+            } else {
+                rank += sizeOf(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    public K select(int index) {
+        return nodeAt(index).key;
+    }
+
+    private KeyedNode<K> find(K key) {
+        KeyedNode<K> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(key, node.key);
+            if (cmp == 0) return node;
+            node = (cmp < 0) ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    protected void moveKey(KeyedNode<K> from, KeyedNode<K> to) {
+        to.key = from.key;
+    }
+
+    @Override
+    protected String format(KeyedNode<K> node) {
+        return keyFormat.apply(node.key);
+    }
+}
+
+// ----------------------
+// Paralleles Laden per Fork-Join und Join-basierter Vereinigung
+// ----------------------
+// Die Eingabe wird rekursiv (an Kommagrenzen bzw. Array-Hälften) zerlegt. Jedes Blatt-Stück wird
+// geparst, sortiert und in O(n) zu einem balancierten Rot-Schwarz-Baum aufgebaut. Auf dem Rückweg
+// werden die Teilbäume paarweise vereinigt: union(a, b) zerlegt b am Wurzelschlüssel von a
+// (split), vereinigt linke und rechte Hälften parallel und fügt sie mit join wieder zusammen.
+// join hängt den kleineren Baum auf passender Schwarzhöhe ein und repariert lokal – das Ergebnis
+// erfüllt alle fünf Regeln. Duplikate bleiben erhalten (Multimenge wie beim normalen Einfügen).
+// Knoten werden wiederverwendet; jeder neu verknüpfte Knoten verliert seinen Snapshot-Cache.
+final class ParallelTreeBuilder {
+    // Zeichen bzw. Schlüssel pro Blatt-Stück und Mindestgröße für parallele Vereinigung.
+    private static final int PARSE_GRAIN = 1 << 16;
+    private static final int SORT_GRAIN = 1 << 15;
+    private static final int UNION_GRAIN = 1 << 13;
+
+    private ParallelTreeBuilder() {
+    }
+
+    static Node build(int[] keys) {
+        return ForkJoinPool.commonPool().invoke(new BuildTask(keys, 0, keys.length));
+    }
+
+    static Node load(String input, InvalidTokens invalidTokens) {
+        int end = input.length();
+        while (end > 0 && (input.charAt(end - 1) == ',' || Character.isWhitespace(input.charAt(end - 1)))) end--;
+        int start = 0;
+        while (start < end && Character.isWhitespace(input.charAt(start))) start++;
+        if (start >= end) return null;
+        LoadTask task = new LoadTask(input, start, end, invalidTokens);
+        Node tree = ForkJoinPool.commonPool().invoke(task);
+        return tree;
+    }
+
+    static Node union(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return ForkJoinPool.commonPool().invoke(new UnionTask(a, b));
+    }
+
+    private static final class BuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] keys;
+        private final int from;
+        private final int to;
+
+        BuildTask(int[] keys, int from, int to) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Node compute() {
+            if (to - from <= SORT_GRAIN) {
+                int[] chunk = Arrays.copyOfRange(keys, from, to);
+                Arrays.sort(chunk);
+                return RedBlackTree.buildBalanced(chunk, 0, chunk.length);
+            }
+            int mid = (from + to) >>> 1;
+            BuildTask left = new BuildTask(keys, from, mid);
+            left.fork();
+            Node right = new BuildTask(keys, mid, to).compute();
+            return new UnionTask(left.join(), right).compute();
+        }
+    }
+
+    // Zerlegt input[from, to) an einem Komma nahe der Mitte, Blätter parsen sequentiell.
+    private static final class LoadTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final String input;
+        private final int from;
+        private final int to;
+        private final InvalidTokens invalid;
+
+        LoadTask(String input, int from, int to, InvalidTokens invalid) {
+            this.input = input;
+            this.from = from;
+            this.to = to;
+            this.invalid = invalid;
+        }
+
+        @Override
+        protected Node compute() {
+            int split = (to - from > PARSE_GRAIN) ? input.indexOf(',', (from + to) >>> 1) : -1;
+            if (split < 0 || split >= to) return parseChunk();
+
+            LoadTask left = new LoadTask(input, from, split, invalid);
+            LoadTask right = new LoadTask(input, split + 1, to, invalid);
+            left.fork();
+            Node rightTree = right.compute();
+            Node leftTree = left.join();
+            if (leftTree == null) return rightTree;
+            if (rightTree == null) return leftTree;
+            return new UnionTask(leftTree, rightTree).compute();
+        }
+
+        // Ungültige Einträge werden erst lokal gesammelt, damit die Blätter nicht um den
+        // gemeinsamen Zähler konkurrieren.
+        private Node parseChunk() {
+            KeyParser.KeyList keys = new KeyParser.KeyList();
+            InvalidTokens local = new InvalidTokens();
+            KeyParser parser = new KeyParser(keys, local);
+            parser.feed(input, from, to);
+            parser.finishSegment();
+            if (!local.isEmpty()) invalid.addAll(local);
+            int[] sorted = keys.toArray();
+            if (!keys.isSorted()) Arrays.sort(sorted);
+            return RedBlackTree.buildBalanced(sorted, 0, sorted.length);
+        }
+    }
+
+    private static final class UnionTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final Node a;
+        private final Node b;
+
+        UnionTask(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Node compute() {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.size + b.size < UNION_GRAIN) return unionSequential(a, b);
+            Node aLeft = a.left;
+            Node aRight = a.right;
+            Node[] parts = new Node[2];
+            split(b, a.key, parts);
+            UnionTask left = new UnionTask(aLeft, parts[0]);
+            left.fork();
+            Node right = new UnionTask(aRight, parts[1]).compute();
+            return joinTrees(left.join(), a, right);
+        }
+    }
+
+    private static Node unionSequential(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        Node aLeft = a.left;
+        Node aRight = a.right;
+        Node[] parts = new Node[2];
+        split(b, a.key, parts);
+        Node left = unionSequential(aLeft, parts[0]);
+        Node right = unionSequential(aRight, parts[1]);
+        return joinTrees(left, a, right);
+    }
+
+    // parts[0] = Schlüssel < key, parts[1] = Schlüssel >= key.
+    private static void split(Node tree, int key, Node[] parts) {
+        if (tree == null) {
+            parts[0] = null;
+            parts[1] = null;
+            return;
+        }
+        Node left = tree.left;
+        Node right = tree.right;
+        if (key <= tree.key) {
+            split(left, key, parts);
+            parts[1] = joinTrees(parts[1], tree, right);
+        } else {
+            split(right, key, parts);
+            parts[0] = joinTrees(left, tree, parts[0]);
+        }
+    }
+
+    // Verbindet left < middle <= right zu einem gültigen Baum (Wurzel kann rot sein).
+    private static Node joinTrees(Node left, Node middle, Node right) {
+        blacken(left);
+        blacken(right);
+        int leftHeight = blackHeight(left);
+        int rightHeight = blackHeight(right);
+        if (leftHeight > rightHeight) {
+            Node tree = joinRight(left, leftHeight, middle, right, rightHeight);
+            if (tree.isRed && isRed(tree.right)) blacken(tree);
+            return tree;
+        }
+        if (rightHeight > leftHeight) {
+            Node tree = joinLeft(left, leftHeight, middle, right, rightHeight);
+            if (tree.isRed && isRed(tree.left)) blacken(tree);
+            return tree;
+        }
+        return link(middle, left, right, true);
+    }
+
+    // Steigt den rechten Rand von left hinab bis zu einem schwarzen Knoten mit der Schwarzhöhe
+    // von right und hängt dort middle (rot) ein. Rot-Rot-Konflikte werden beim Aufstieg durch
+    // eine Linksrotation am schwarzen Großelternknoten behoben.
+    private static Node joinRight(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        if (!isRed(left) && leftHeight == rightHeight) return link(middle, left, right, true);
+        Node child = joinRight(left.right, left.isRed ? leftHeight : leftHeight - 1, middle, right, rightHeight);
+        link(left, left.left, child, left.isRed);
+        if (!left.isRed && isRed(child) && isRed(child.right)) {
+            blacken(child.right);
+            return rotateLeft(left);
+        }
+        return left;
+    }
+
+    private static Node joinLeft(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        if (!isRed(right) && leftHeight == rightHeight) return link(middle, left, right, true);
+        Node child = joinLeft(left, leftHeight, middle, right.left, right.isRed ? rightHeight : rightHeight - 1);
+        link(right, child, right.right, right.isRed);
+        if (!right.isRed && isRed(child) && isRed(child.left)) {
+            blacken(child.left);
+            return rotateRight(right);
+        }
+        return right;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        link(node, node.left, pivot.left, node.isRed);
+        return link(pivot, node, pivot.right, pivot.isRed);
+    }
+
+    private static Node rotateRight(Node node) {
+        Node pivot = node.left;
+        link(node, pivot.right, node.right, node.isRed);
+        return link(pivot, pivot.left, node, pivot.isRed);
+    }
+
+    private static Node link(Node node, Node left, Node right, boolean red) {
+        node.left = left;
+        node.right = right;
+        node.isRed = red;
+        node.size = RedBlackTree.sizeOf(left) + RedBlackTree.sizeOf(right) + 1;
+        node.shared = null;
+        if (left != null) left.parent = node;
+        if (right != null) right.parent = node;
+        return node;
+    }
+
+    private static void blacken(Node node) {
+        if (node != null && node.isRed) {
+            node.isRed = false;
+            node.shared = null;
+        }
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.isRed;
+    }
+
+    // Anzahl schwarzer Knoten auf dem linken Rand (in einem gültigen Baum für alle Pfade gleich).
+    private static int blackHeight(Node node) {
+        int height = 0;
+        for (; node != null; node = node.left) {
+            if (!node.isRed) height++;
+        }
+        return height;
+    }
+}
+
+// ----------------------
+// Streaming-Parser für die Zahleneingabe
+// ----------------------
+// Zustandsbehafteter Push-Parser: Zeichen bzw. Bytes werden stückweise mit feed() hineingeschoben,
+// ein Token kann also über Puffergrenzen reichen. Pro Token werden weder Strings noch Arrays
+// erzeugt; gültige Schlüssel landen in einem wiederverwendeten Batch-Array, das bei Bedarf an den
+// BatchSink geht (der Sink muss die Werte kopieren, wenn er sie behalten will).
+// Es gelten dieselben Regeln wie bisher mit trim/split("\\s*,\\s*")/Integer.parseInt: Leerraum um
+// Kommas wird ignoriert, leere Einträge zwischen Kommas sind ungültig, leere Einträge am Ende
+// werden verworfen. Ungültige Einträge werden nur gezählt und in InvalidTokens gesammelt.
+final class KeyParser {
+    interface BatchSink {
+        void accept(int[] keys, int count);
+    }
+
+    // Fortschritt und Abbruch für parse(Path/Channel). isCancelled() wird vor jedem Stück geprüft;
+    // total ist -1, wenn die Länge unbekannt ist (Kanal).
+    interface Progress {
+        boolean isCancelled();
+
+        void update(long read, long total);
+    }
+
+    static final int DEFAULT_BATCH = 4096;
+    // Gemappte Fenstergröße für Dateien, Stückgröße für Fortschritt/Abbruch und Puffergröße für Kanäle.
+    private static final long MAP_WINDOW = 64L << 20;
+    private static final int SLICE = 1 << 20;
+    private static final int CHANNEL_BUFFER = 1 << 16;
+    private static final long LIMIT = 2147483648L;
+
+    private final BatchSink sink;
+    private final InvalidTokens invalid;
+    private final int[] batch;
+    private int batchCount;
+    private long keyCount;
+
+    // Zustand des aktuellen Tokens
+    private boolean started;
+    private boolean negative;
+    private boolean hasDigits;
+    private boolean bad;
+    private boolean spaceAfterContent;
+    private long value;
+    private int pendingEmpty;
+    // Rohtext des Tokens (gekürzt) für die Fehlermeldung, wird für jedes Token wiederverwendet.
+    private final char[] raw = new char[InvalidTokens.MAX_TOKEN_LENGTH];
+    private int rawLength;
+    private int rawTrimmed;
+
+    KeyParser(BatchSink sink, InvalidTokens invalid) {
+        this(sink, invalid, DEFAULT_BATCH);
+    }
+
+    KeyParser(BatchSink sink, InvalidTokens invalid, int batchSize) {
+        this.sink = sink;
+        this.invalid = invalid;
+        this.batch = new int[batchSize];
+    }
+
+    static void parse(CharSequence text, BatchSink sink, InvalidTokens invalid) {
+        KeyParser parser = new KeyParser(sink, invalid);
+        parser.feed(text, 0, text.length());
+        parser.finish();
+    }
+
+    // Liest die Datei über gemappte Fenster, ohne sie als String in den Speicher zu holen. Liefert
+    // die Anzahl gültiger Schlüssel; bei Abbruch gehen die bis dahin fertigen noch an den Sink.
+    static long parse(Path file, BatchSink sink, InvalidTokens invalid, Progress progress) throws IOException {
+        KeyParser parser = new KeyParser(sink, invalid);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size && !progress.isCancelled(); position += MAP_WINDOW) {
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                while (window.hasRemaining() && !progress.isCancelled()) {
+                    ByteBuffer slice = window.slice();
+                    slice.limit(Math.min(SLICE, slice.remaining()));
+                    parser.feed(slice);
+                    window.position(window.position() + slice.limit());
+                    progress.update(position + window.position(), size);
+                }
+            }
+        }
+        return parser.end(progress.isCancelled());
+    }
+
+    // Ein blockierendes read() sieht isCancelled() erst beim nächsten Stück. Wer sofort abbrechen
+    // will, schließt den Kanal nach dem Abbruchwunsch; die ClosedChannelException gilt dann als Abbruch.
+    static long parse(ReadableByteChannel channel, BatchSink sink, InvalidTokens invalid, Progress progress) throws IOException {
+        KeyParser parser = new KeyParser(sink, invalid);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER);
+        long read = 0;
+        try {
+            while (!progress.isCancelled() && channel.read(buffer) >= 0) {
+                buffer.flip();
+                read += buffer.remaining();
+                parser.feed(buffer);
+                buffer.clear();
+                progress.update(read, -1);
+            }
+        } catch (ClosedChannelException e) {
+            if (!progress.isCancelled()) throw e;
+        }
+        return parser.end(progress.isCancelled());
+    }
+
+    void feed(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) accept(text.charAt(i));
+    }
+
+    // Bytes werden als ASCII gelesen; alles außerhalb macht das Token ungültig.
+    void feed(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        for (int i = bytes.position(); i < limit; i++) accept((char) (bytes.get(i) & 0xFF));
+        bytes.position(limit);
+    }
+
+    // Ende der Eingabe: letztes Token abschließen, leere Einträge am Ende verwerfen.
+    void finish() {
+        if (started) endToken();
+        pendingEmpty = 0;
+        flushBatch();
+    }
+
+    // Abbruch: das angefangene Token wird verworfen, fertige Schlüssel gehen noch an den Sink.
+    void abort() {
+        pendingEmpty = 0;
+        resetToken();
+        flushBatch();
+    }
+
+    private long end(boolean cancelled) {
+        if (cancelled) abort();
+        else finish();
+        return keyCount;
+    }
+
+    // Ende eines Teilstücks, auf das in der Gesamteingabe noch ein Komma folgt (paralleles Laden):
+    // auch ein leeres letztes Token zählt hier als ungültig.
+    void finishSegment() {
+        endToken();
+        flushEmpty();
+        flushBatch();
+    }
+
+    long keyCount() {
+        return keyCount;
+    }
+
+    private void accept(char c) {
+        if (c == ',') {
+            endToken();
+            return;
+        }
+        if (c <= ' ') {
+            if (started) {
+                spaceAfterContent = true;
+                appendRaw(c);
+            }
+            return;
+        }
+        boolean first = !started;
+        started = true;
+        appendRaw(c);
+        if (spaceAfterContent) bad = true;
+        if (c >= '0' && c <= '9') {
+            hasDigits = true;
+            if (!bad) {
+                value = value * 10 + (c - '0');
+                if (value > LIMIT) bad = true;
+            }
+        } else if (first && (c == '-' || c == '+')) {
+            negative = c == '-';
+        } else {
+            bad = true;
+        }
+    }
+
+    private void endToken() {
+        if (!started) {
+            pendingEmpty++;
+            return;
+        }
+        flushEmpty();
+        if (!bad && hasDigits && value <= (negative ? LIMIT : Integer.MAX_VALUE)) {
+            if (batchCount == batch.length) flushBatch();
+            batch[batchCount++] = (int) (negative ? -value : value);
+            keyCount++;
+        } else {
+            invalid.add(raw, Math.min(rawTrimmed, raw.length), rawTrimmed > raw.length);
+        }
+        resetToken();
+    }
+
+    private void resetToken() {
+        started = false;
+        negative = false;
+        hasDigits = false;
+        bad = false;
+        spaceAfterContent = false;
+        value = 0;
+        rawLength = 0;
+        rawTrimmed = 0;
+    }
+
+    private void flushEmpty() {
+        for (; pendingEmpty > 0; pendingEmpty--) invalid.add(raw, 0, false);
+    }
+
+    private void flushBatch() {
+        if (batchCount > 0) sink.accept(batch, batchCount);
+        batchCount = 0;
+    }
+
+    private void appendRaw(char c) {
+        if (rawLength < raw.length) raw[rawLength] = c;
+        rawLength++;
+        if (c > ' ') rawTrimmed = rawLength;
+    }
+
+    // Sammelt alle Schlüssel in einem wachsenden Array und merkt sich, ob sie sortiert ankamen.
+    static final class KeyList implements BatchSink {
+        private int[] keys = new int[16];
+        private int count;
+        private boolean sorted = true;
+
+        @Override
+        public void accept(int[] batch, int batchCount) {
+            if (count + batchCount > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2, count + batchCount));
+            }
+            if (sorted && batchCount > 0 && count > 0 && batch[0] < keys[count - 1]) sorted = false;
+            for (int i = 1; sorted && i < batchCount; i++) {
+                if (batch[i] < batch[i - 1]) sorted = false;
+            }
+            System.arraycopy(batch, 0, keys, count, batchCount);
+            count += batchCount;
+        }
+
+        int size() {
+            return count;
+        }
+
+        boolean isSorted() {
+            return sorted;
+        }
+
+        int get(int index) {
+            return keys[index];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(keys, count);
+        }
+    }
+}
+
+// Anzahl ungültiger Einträge plus die ersten MAX_SAMPLES davon (gekürzt) für eine Sammelmeldung.
+final class InvalidTokens {
+    static final int MAX_SAMPLES = 10;
+    static final int MAX_TOKEN_LENGTH = 32;
+
+    private long count;
+    private final List<String> samples = new ArrayList<>();
+
+    synchronized void add(char[] token, int length, boolean truncated) {
+        count++;
+        if (samples.size() < MAX_SAMPLES) samples.add(new String(token, 0, length) + (truncated ? "…" : ""));
+    }
+
+    synchronized void addAll(InvalidTokens other) {
+        count += other.count;
+        for (String sample : other.samples) {
+            if (samples.size() >= MAX_SAMPLES) break;
+            samples.add(sample);
+        }
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    synchronized List<String> samples() {
+        return new ArrayList<>(samples);
+    }
+
+    // z. B. "3 ungültige Einträge übersprungen: a, 1x, "" "
+    String summary() {
+        StringBuilder text = new StringBuilder(String.format(Localization.get("invalidSummary"), count()));
+        List<String> shown = samples();
+        for (int i = 0; i < shown.size(); i++) {
+            text.append(i == 0 ? "\n" : ", ").append('"').append(shown.get(i)).append('"');
+        }
+        if (count() > shown.size()) text.append(", …");
+        return text.toString();
+    }
+}
+
+// ----------------------
+// Array-basierte Variante ohne Node-Objekte
+// ----------------------
+// Schlüssel und Links liegen in parallelen int-Arrays, die Farben als Bitset in einem long-Array.
+// Slot 0 ist NIL, ein Knoten kostet so 16 Byte + 1 Bit statt eines eigenen Node-Objekts.
+// Einfügen, Rotationen und Fixup entsprechen RedBlackTree (ohne Schrittaufzeichnung).
+class ArrayRedBlackTree {
+    private static final int NIL = 0;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private long[] red;
+    private int root = NIL;
+    private int size = 0;
+
+    public ArrayRedBlackTree() {
+        this(16);
+    }
+
+    public ArrayRedBlackTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1) + 1;
+        keys = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Beide Kinder werden gelesen und erst danach ausgewählt: so kann der JIT die Auswahl ohne
+    // Sprung übersetzen (cmov), ein bedingter Zugriff auf left[] oder right[] wird dagegen bei
+    // zufälligen Schlüsseln auf jeder Ebene falsch vorhergesagt.
+    public boolean contains(int key) {
+        int node = root;
+        while (node != NIL) {
+            int k = keys[node];
+            if (key == k) return true;
+            int l = left[node];
+            int r = right[node];
+            node = key < k ? l : r;
+        }
+        return false;
+    }
+
+    public void insert(int key) {
+        int node = allocate(key);
+        int p = NIL;
+        int cur = root;
+        while (cur != NIL) {
+            p = cur;
+            cur = key < keys[cur] ? left[cur] : right[cur];
+        }
+        parent[node] = p;
+        if (p == NIL) root = node;
+        else if (key < keys[p]) left[p] = node;
+        else right[p] = node;
+        fixViolation(node);
+    }
+
+    public void insertAll(int[] keys) {
+        ensureCapacity(size + keys.length);
+        for (int key : keys) insert(key);
+    }
+
+    // Wandelt den Baum in Node-Objekte um (samt parent und Teilbaumgrößen für rank/select), z.B. um
+    // ihn am Ende im TreeVisualizer anzuzeigen.
+    public Node toNodeTree() {
+        return toNode(root);
+    }
+
+    private Node toNode(int index) {
+        if (index == NIL) return null;
+        Node node = new Node(keys[index]);
+        node.isRed = isRed(index);
+        node.left = toNode(left[index]);
+        node.right = toNode(right[index]);
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+        node.size = 1 + RedBlackTree.sizeOf(node.left) + RedBlackTree.sizeOf(node.right);
+        return node;
+    }
+
+    private int allocate(int key) {
+        ensureCapacity(size + 1);
+        int node = ++size;
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        setRed(node, true);
+        return node;
+    }
+
+    private void ensureCapacity(int nodes) {
+        int needed = nodes + 1;
+        if (needed <= keys.length) return;
+        int capacity = Math.max(needed, keys.length + (keys.length >> 1));
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+    }
+
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setRed(int node, boolean isRed) {
+        if (isRed) red[node >>> 6] |= 1L << node;
+        else red[node >>> 6] &= ~(1L << node);
+    }
+
+    // Gleiche Fallunterscheidung wie LinkedRedBlackTree.fixInsert. NIL ist nie rot.
+    private void fixViolation(int node) {
+        while (parent[node] != NIL && isRed(parent[node])) {
+            int p = parent[node];
+            int grandparent = parent[p];
+            if (grandparent == NIL) break;
+            int uncle = (p == left[grandparent]) ? right[grandparent] : left[grandparent];
+
+            if (uncle != NIL && isRed(uncle)) {
+                setRed(p, false);
+                setRed(uncle, false);
+                setRed(grandparent, true);
+                node = grandparent;
+            } else {
+                if (node == right[p] && p == left[grandparent]) {
+                    rotateLeft(p);
+                    node = p;
+                } else if (node == left[p] && p == right[grandparent]) {
+                    rotateRight(p);
+                    node = p;
+                } else {
+                    setRed(p, false);
+                    setRed(grandparent, true);
+                    if (node == left[p]) rotateRight(grandparent);
+                    else rotateLeft(grandparent);
+                    break;
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    private void rotateLeft(int node) {
+        int temp = right[node];
+        right[node] = left[temp];
+        if (left[temp] != NIL) parent[left[temp]] = node;
+        parent[temp] = parent[node];
+        if (parent[node] == NIL) root = temp;
+        else if (node == left[parent[node]]) left[parent[node]] = temp;
+        else right[parent[node]] = temp;
+        left[temp] = node;
+        parent[node] = temp;
+    }
+
+    private void rotateRight(int node) {
+        int temp = left[node];
+        left[node] = right[temp];
+        if (right[temp] != NIL) parent[right[temp]] = node;
+        parent[temp] = parent[node];
+        if (parent[node] == NIL) root = temp;
+        else if (node == right[parent[node]]) right[parent[node]] = temp;
+        else left[parent[node]] = temp;
+        right[temp] = node;
+        parent[node] = temp;
+    }
+}
+
+// ----------------------
+// Baum in einer memory-mapped Datei (off-heap)
+// ----------------------
+// Jeder Knoten belegt einen 16-Byte-Slot: key, left, right, parent (das oberste Bit von parent
+// ist die Farbe). Slot 0 ist NIL und enthält den Dateikopf (Magic, Größe, Wurzel, Version).
+// Die Datei wird in Blöcken zu CHUNK_SLOTS Slots gemappt und wächst bei Bedarf, der Baum kann
+// so größer als der Java-Heap werden. Wiederöffnen liest nur den Kopf – kein erneutes Einfügen.
+// Einfügen, Rotationen und Fixup entsprechen ArrayRedBlackTree.
+// Absturzverhalten: Der Kopf wird nach jedem Einfügen geschrieben, während des Einfügens ist im
+// Größenfeld DIRTY_BIT gesetzt. Stirbt der Prozess zwischen zwei Einfügungen, sind Kopf und Knoten
+// im Page-Cache konsistent. Stirbt er mitten im Einfügen (Bit gesetzt), prüft open() die ganze
+// Struktur (O(n)) und lehnt die Datei ab, wenn sie nicht mehr stimmt. Gegen Stromausfall hilft
+// nur flush()/close(), erst force() bringt die Seiten sicher auf die Platte.
+class MappedRedBlackTree implements Closeable {
+    private static final int NIL = 0;
+    private static final int MAGIC = 0x52425431; // "RBT1"
+    private static final int VERSION = 1;
+    static final int SLOT_BYTES = 16;
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+    private static final int RED_BIT = 0x8000_0000;
+    // Im Größenfeld des Kopfs: Einfügen läuft (die Größe selbst ist nie negativ)
+    static final int DIRTY_BIT = 0x8000_0000;
+    // Höhe eines Rot-Schwarz-Baums mit höchstens 2^31 Knoten ist <= 2 * 31, begrenzt die Prüfung
+    private static final int MAX_HEIGHT = 62;
+
+    private static final int KEY = 0;
+    static final int LEFT = 4;
+    private static final int RIGHT = 8;
+    private static final int PARENT = 12;
+
+    private static final int HEADER_MAGIC = 0;
+    static final int HEADER_SIZE = 4;
+    static final int HEADER_ROOT = 8;
+    private static final int HEADER_VERSION = 12;
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private int root;
+    private int size;
+
+    private MappedRedBlackTree(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    // Öffnet eine bestehende Baumdatei oder legt eine neue, leere an.
+    public static MappedRedBlackTree open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedRedBlackTree tree = new MappedRedBlackTree(channel);
+        try {
+            boolean isNew = channel.size() == 0;
+            boolean dirty = false;
+            if (!isNew) {
+                // Kopf vor dem Mappen prüfen, damit fremde Dateien nicht vergrößert werden.
+                ByteBuffer header = ByteBuffer.allocate(SLOT_BYTES);
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+                if (header.hasRemaining() || header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+                    throw new IOException("Keine gültige Baumdatei: " + file);
+                }
+                int size = header.getInt(HEADER_SIZE);
+                dirty = (size & DIRTY_BIT) != 0;
+                tree.size = size & ~DIRTY_BIT;
+                tree.root = header.getInt(HEADER_ROOT);
+                long slots = channel.size() / SLOT_BYTES - 1;
+                if (tree.size > slots || tree.root < NIL || tree.root > tree.size || (tree.root == NIL) != (tree.size == 0)) {
+                    throw new IOException("Keine gültige Baumdatei: " + file);
+                }
+            }
+            tree.mapChunks(isNew ? 1 : (int) ((channel.size() + chunkBytes() - 1) / chunkBytes()));
+            if (isNew) {
+                tree.chunks[0].putInt(HEADER_MAGIC, MAGIC);
+                tree.writeHeader();
+            } else if (dirty) {
+                if (!tree.isConsistent()) throw new IOException("Baumdatei beim Einfügen abgebrochen und inkonsistent: " + file);
+                tree.writeHeader();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return tree;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int key) {
+        int node = root;
+        while (node != NIL) {
+            int k = key(node);
+            if (key == k) return true;
+            node = key < k ? left(node) : right(node);
+        }
+        return false;
+    }
+
+    public void insert(int key) throws IOException {
+        chunks[0].putInt(HEADER_SIZE, size | DIRTY_BIT);
+        int node = allocate(key);
+        int p = NIL;
+        int cur = root;
+        while (cur != NIL) {
+            p = cur;
+            cur = key < key(cur) ? left(cur) : right(cur);
+        }
+        setParent(node, p);
+        if (p == NIL) root = node;
+        else if (key < key(p)) setLeft(p, node);
+        else setRight(p, node);
+        fixViolation(node);
+        writeHeader();
+    }
+
+    public void insertAll(int[] keys) throws IOException {
+        for (int key : keys) insert(key);
+    }
+
+    // Schreibt den Kopf und alle Blöcke auf die Platte.
+    public void flush() {
+        writeHeader();
+        for (MappedByteBuffer chunk : chunks) chunk.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private static long chunkBytes() {
+        return (long) CHUNK_SLOTS * SLOT_BYTES;
+    }
+
+    // Root zuerst, die Größe ohne DIRTY_BIT zuletzt: erst danach gilt der Kopf wieder als vollständig.
+    private void writeHeader() {
+        ByteBuffer header = chunks[0];
+        header.putInt(HEADER_ROOT, root);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_SIZE, size);
+    }
+
+    // Prüfung nach abgebrochenem Einfügen: Knotenindizes im Bereich, parent-Verweise, Reihenfolge
+    // der Schlüssel, Regeln des Rot-Schwarz-Baums und genau size erreichbare Knoten (ohne Löschen
+    // gehören alle belegten Slots zum Baum).
+    private boolean isConsistent() {
+        if (root == NIL) return size == 0;
+        if (parent(root) != NIL || isRed(root)) return false;
+        int[] count = {0};
+        return blackHeight(root, Integer.MIN_VALUE, Integer.MAX_VALUE, 1, count) >= 0 && count[0] == size;
+    }
+
+    // Schwarzhöhe des Teilbaums oder -1 bei einem Fehler. Die Tiefe ist durch MAX_HEIGHT begrenzt,
+    // damit auch Zyklen in einer beschädigten Datei die Rekursion nicht sprengen.
+    private int blackHeight(int node, int min, int max, int depth, int[] count) {
+        if (node == NIL) return 1;
+        if (node < 0 || node > size || depth > MAX_HEIGHT || ++count[0] > size) return -1;
+        int key = key(node);
+        if (key < min || key > max) return -1;
+        int l = left(node);
+        int r = right(node);
+        if (!isChildOf(l, node) || !isChildOf(r, node)) return -1;
+        if (isRed(node) && (isRed(l) || isRed(r))) return -1;
+        int leftHeight = blackHeight(l, min, key, depth + 1, count);
+        int rightHeight = blackHeight(r, key, max, depth + 1, count);
+        if (leftHeight < 0 || leftHeight != rightHeight) return -1;
+        return leftHeight + (isRed(node) ? 0 : 1);
+    }
+
+    private boolean isChildOf(int child, int node) {
+        return child == NIL || (child > 0 && child <= size && parent(child) == node);
+    }
+
+    private void mapChunks(int count) throws IOException {
+        int old = chunks.length;
+        if (count <= old) return;
+        chunks = Arrays.copyOf(chunks, count);
+        for (int i = old; i < count; i++) {
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkBytes(), chunkBytes());
+        }
+    }
+
+    private int allocate(int key) throws IOException {
+        if (size == Integer.MAX_VALUE - 1) throw new IOException("Baumdatei ist voll");
+        int node = size + 1;
+        mapChunks((node >>> CHUNK_SHIFT) + 1);
+        size = node;
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node);
+        chunk.putInt(offset + KEY, key);
+        chunk.putInt(offset + LEFT, NIL);
+        chunk.putInt(offset + RIGHT, NIL);
+        chunk.putInt(offset + PARENT, NIL | RED_BIT);
+        return node;
+    }
+
+    private ByteBuffer chunk(int node) {
+        return chunks[node >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int node) {
+        return (node & CHUNK_MASK) * SLOT_BYTES;
+    }
+
+    private int key(int node) {
+        return chunk(node).getInt(offset(node) + KEY);
+    }
+
+    private int left(int node) {
+        return chunk(node).getInt(offset(node) + LEFT);
+    }
+
+    private int right(int node) {
+        return chunk(node).getInt(offset(node) + RIGHT);
+    }
+
+    private int parent(int node) {
+        return chunk(node).getInt(offset(node) + PARENT) & ~RED_BIT;
+    }
+
+    private boolean isRed(int node) {
+        return node != NIL && (chunk(node).getInt(offset(node) + PARENT) & RED_BIT) != 0;
+    }
+
+    private void setLeft(int node, int child) {
+        chunk(node).putInt(offset(node) + LEFT, child);
+    }
+
+    private void setRight(int node, int child) {
+        chunk(node).putInt(offset(node) + RIGHT, child);
+    }
+
+    private void setParent(int node, int p) {
+        ByteBuffer chunk = chunk(node);
+        int at = offset(node) + PARENT;
+        chunk.putInt(at, (chunk.getInt(at) & RED_BIT) | p);
+    }
+
+    private void setRed(int node, boolean red) {
+        ByteBuffer chunk = chunk(node);
+        int at = offset(node) + PARENT;
+        int value = chunk.getInt(at);
+        chunk.putInt(at, red ? value | RED_BIT : value & ~RED_BIT);
+    }
+
+    private void fixViolation(int node) {
+        while (parent(node) != NIL && isRed(parent(node))) {
+            int p = parent(node);
+            int grandparent = parent(p);
+            if (grandparent == NIL) break;
+            int uncle = (p == left(grandparent)) ? right(grandparent) : left(grandparent);
+
+            if (isRed(uncle)) {
+                setRed(p, false);
+                setRed(uncle, false);
+                setRed(grandparent, true);
+                node = grandparent;
+            } else {
+                if (node == right(p) && p == left(grandparent)) {
+                    rotateLeft(p);
+                    node = p;
+                } else if (node == left(p) && p == right(grandparent)) {
+                    rotateRight(p);
+                    node = p;
+                } else {
+                    setRed(p, false);
+                    setRed(grandparent, true);
+                    if (node == left(p)) rotateRight(grandparent);
+                    else rotateLeft(grandparent);
+                    break;
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    private void rotateLeft(int node) {
+        int temp = right(node);
+        int tempLeft = left(temp);
+        int p = parent(node);
+        setRight(node, tempLeft);
+        if (tempLeft != NIL) setParent(tempLeft, node);
+        setParent(temp, p);
+        if (p == NIL) root = temp;
+        else if (node == left(p)) setLeft(p, temp);
+        else setRight(p, temp);
+        setLeft(temp, node);
+        setParent(node, temp);
+    }
+
+    private void rotateRight(int node) {
+        int temp = left(node);
+        int tempRight = right(temp);
+        int p = parent(node);
+        setLeft(node, tempRight);
+        if (tempRight != NIL) setParent(tempRight, node);
+        setParent(temp, p);
+        if (p == NIL) root = temp;
+        else if (node == right(p)) setRight(p, temp);
+        else setLeft(p, temp);
+        setRight(temp, node);
+        setParent(node, temp);
+    }
+}
+
+// ----------------------
+// Speichern und Laden einer Sitzung (Baum + alle Schritte)
+// ----------------------
+// Binärformat über NIO-Puffer. Gespeichert wird das Operationsprotokoll (siehe TreeHistory) samt
+// Checkpoints, die Schritte verweisen nur auf Protokollpositionen. Operationen sind Varints
+// (Opcode mit Tiefe, Pfad, ZigZag-Argument). Checkpoint-Bäume werden in Pre-Order geschrieben; ein
+// Knoten-Eintrag ist ein Varint, dessen untere zwei Bits den Typ tragen (leer, Rückverweis,
+// schwarz, rot). Neue Knoten speichern den Schlüssel als ZigZag-Differenz zum zuletzt
+// geschriebenen Schlüssel. Da Checkpoints per Path-Copying Teilbäume teilen, wird jeder geteilte
+// Teilbaum nur einmal geschrieben und danach über seine Nummer referenziert. Beim Laden wird der
+// lebende Baum aus dem gespeicherten Endzustand aufgebaut, ohne Einfügungen zu wiederholen.
+//
+// Aufbau: MAGIC, VERSION, Operationen, Checkpoints, Schritte (Position, Regelfälle als Ordinal,
+// Positionen der Zwischenzustände), aktueller Schritt, zuletzt der lebende Baum.
+// Beim Laden wird alles geprüft, was später beim Nachspielen oder Zeichnen scheitern würde:
+// Checkpoints streng aufsteigend und im Protokoll, nach jedem RESET ein Checkpoint (über RESET wird
+// nie nachgespielt), Bäume höchstens MAX_DEPTH tief und Rückverweise nur auf fertige Teilbäume
+// (keine Zyklen), jede Operation lässt sich nachspielen (TreeHistory.replayAll, einmal über das
+// ganze Protokoll), jeder Checkpoint und der lebende Baum stimmen mit dem nachgespielten Zustand
+// überein und der lebende Baum erfüllt alle Regeln. Verstöße werden zur IOException.
+final class TreeSerializer {
+    static final int MAGIC = 0x52425331; // "RBS1"
+    static final int VERSION = 2;
+    private static final int TAG_NULL = 0;
+    private static final int TAG_REF = 1;
+    private static final int TAG_BLACK = 2;
+    private static final int TAG_RED = 3;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_VARINT = 10;
+    // Höhe eines Rot-Schwarz-Baums mit weniger als 2^31 Knoten, siehe TreeHistory
+    private static final int MAX_DEPTH = 64;
+
+    private TreeSerializer() {
+    }
+
+    static void save(RedBlackTree tree, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Encoder out = new Encoder(channel);
+            out.buffer.putInt(MAGIC).put((byte) VERSION);
+            TreeHistory history = tree.getHistory();
+            out.writeVarint(history.length());
+            for (int i = 0; i < history.length(); i++) {
+                out.writeVarint(history.opCode(i) | (long) history.opDepth(i) << 3);
+                out.writeVarint(history.opPath(i));
+                out.writeVarint(zigzag(history.opArg(i)));
+            }
+            out.writeVarint(history.checkpointCount());
+            for (int i = 0; i < history.checkpointCount(); i++) {
+                out.writeVarint(history.checkpointOp(i));
+                out.writeTree(history.checkpointTree(i));
+            }
+            List<TreeState> steps = tree.getSteps();
+            out.writeVarint(steps.size());
+            for (TreeState state : steps) {
+                out.writeVarint(state.opIndex);
+                out.writeVarint(state.rules.size());
+                for (RuleCase rule : state.rules) out.writeVarint(rule.ordinal());
+                out.writeVarint(state.intermediateOps.length);
+                for (int op : state.intermediateOps) out.writeVarint(op);
+            }
+            out.writeVarint(tree.getCurrentStep());
+            out.writeTree(tree.snapshot());
+            out.flush();
+        }
+    }
+
+    static RedBlackTree load(Path file, TreeStepListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Datei zu groß: " + file);
+            Decoder in = new Decoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (channel.size() < 5 || in.buffer.getInt() != MAGIC || in.buffer.get() != VERSION) {
+                throw new IOException("Keine gespeicherte Baum-Sitzung: " + file);
+            }
+            TreeHistory history = new TreeHistory();
+            int opCount = in.readCount();
+            for (int i = 0; i < opCount; i++) {
+                long code = in.readVarint();
+                long path = in.readVarint();
+                long arg = in.readVarint();
+                if ((code & 7) > TreeHistory.RESET || code >>> 3 > 63) throw new IOException("Ungültige Operation " + code);
+                history.append((int) (code & 7), (int) (code >>> 3), path, (int) ((arg >>> 1) ^ -(arg & 1)));
+            }
+            int checkpointCount = in.readCount();
+            int previous = -1;
+            for (int i = 0; i < checkpointCount; i++) {
+                int op = in.readCount();
+                if (op <= previous || op > opCount) throw new IOException("Ungültiger Checkpoint " + op);
+                previous = op;
+                history.addCheckpoint(op, in.readTree());
+            }
+            for (int i = 0; i < opCount; i++) {
+                if (history.opCode(i) == TreeHistory.RESET && !history.hasCheckpoint(i + 1)) {
+                    throw new IOException("RESET ohne Checkpoint an Position " + i);
+                }
+            }
+            int stepCount = in.readCount();
+            RuleCase[] cases = RuleCase.values();
+            List<TreeState> steps = new ArrayList<>(stepCount);
+            for (int i = 0; i < stepCount; i++) {
+                int opIndex = in.readOp(opCount);
+                int ruleCount = in.readCount();
+                List<RuleCase> rules = new ArrayList<>(ruleCount);
+                for (int r = 0; r < ruleCount; r++) {
+                    int code = in.readCount();
+                    if (code >= cases.length) throw new IOException("Unbekannter Regelfall " + code);
+                    rules.add(cases[code]);
+                }
+                int[] intermediateOps = new int[in.readCount()];
+                for (int s = 0; s < intermediateOps.length; s++) intermediateOps[s] = in.readOp(opCount);
+                steps.add(new TreeState(history, opIndex, rules, intermediateOps));
+            }
+            int currentStep = in.readCount();
+            Node live = in.readTree();
+            if (stepCount > 0 && currentStep >= stepCount) throw new IOException("Ungültiger Schritt " + currentStep);
+            try {
+                if (!TreeHistory.sameTree(history.replayAll(), live)) {
+                    throw new IOException("Baum passt nicht zum Protokoll: " + file);
+                }
+                TreeVerifier.verifyAll(live, false);
+            } catch (IllegalStateException ex) {
+                throw new IOException("Ungültiger Baum: " + ex.getMessage(), ex);
+            }
+            RedBlackTree tree = new RedBlackTree(listener);
+            tree.restore(history, steps, currentStep, live);
+            return tree;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Datei ist beschädigt: " + file, ex);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static final class Encoder {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final FileChannel channel;
+        private final IdentityHashMap<Node, Integer> ids = new IdentityHashMap<>();
+        private long lastKey;
+
+        Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeTree(Node node) throws IOException {
+            if (node == null) {
+                writeVarint(TAG_NULL);
+                return;
+            }
+            Integer id = ids.get(node);
+            if (id != null) {
+                writeVarint(((long) id << 2) | TAG_REF);
+                return;
+            }
+            ids.put(node, ids.size());
+            long delta = node.key - lastKey;
+            lastKey = node.key;
+            writeVarint(zigzag(delta) << 2 | (node.isRed ? TAG_RED : TAG_BLACK));
+            writeTree(node.left);
+            writeTree(node.right);
+        }
+
+        void writeVarint(long value) throws IOException {
+            if (buffer.remaining() < MAX_VARINT) flush();
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    private static final class Decoder {
+        final ByteBuffer buffer;
+        private final List<Node> nodes = new ArrayList<>();
+        // Knoten, deren Teilbaum vollständig gelesen ist; nur auf diese darf verwiesen werden.
+        private final BitSet complete = new BitSet();
+        private long lastKey;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        Node readTree() throws IOException {
+            return readTree(0);
+        }
+
+        // Snapshot-Knoten haben keinen parent; size wird aus den Kindern berechnet.
+        private Node readTree(int depth) throws IOException {
+            long entry = readVarint();
+            int tag = (int) (entry & 3);
+            long payload = entry >>> 2;
+            if (tag == TAG_NULL) return null;
+            if (tag == TAG_REF) {
+                if (payload >= nodes.size() || !complete.get((int) payload)) throw new IOException("Ungültiger Verweis " + payload);
+                return nodes.get((int) payload);
+            }
+            if (depth >= MAX_DEPTH) throw new IOException("Baum tiefer als " + MAX_DEPTH + " Ebenen");
+            lastKey += (payload >>> 1) ^ -(payload & 1);
+            Node node = new Node((int) lastKey);
+            node.isRed = tag == TAG_RED;
+            int id = nodes.size();
+            nodes.add(node);
+            node.left = readTree(depth + 1);
+            node.right = readTree(depth + 1);
+            node.size = 1 + RedBlackTree.sizeOf(node.left) + RedBlackTree.sizeOf(node.right);
+            complete.set(id);
+            return node;
+        }
+
+        int readOp(int opCount) throws IOException {
+            int op = readCount();
+            if (op > opCount) throw new IOException("Ungültige Protokollposition " + op);
+            return op;
+        }
+
+        int readCount() throws IOException {
+            long value = readVarint();
+            if (value < 0 || value > Integer.MAX_VALUE) throw new IOException("Ungültige Anzahl " + value);
+            return (int) value;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Ungültiger Varint");
+        }
+    }
+}
+
+// ----------------------
+// Layout für die Darstellung
+// ----------------------
+// Beschriftung eines Knotens aus seinem int-Schlüssel. Bäume mit anderen Schlüsseltypen (siehe
+// TreeDisplay) legen im Node-Snapshot die Position des Schlüssels ab und übersetzen sie hier zurück.
+interface KeyFormatter {
+    KeyFormatter DECIMAL = String::valueOf;
+
+    String format(int key);
+}
+
+// Positionen eines Snapshots in Weltkoordinaten (Zoom 1), einmal berechnet und vom Panel
+// zwischengespeichert, solange Snapshot, Breite und sichtbarer Ausschnitt gleich bleiben.
+// Einträge liegen in Pre-Order; end[i] zeigt hinter den Teilbaum von i, so kann das Zeichnen
+// ganze Teilbäume außerhalb des Clip-Bereichs überspringen. Teilbäume außerhalb des sichtbaren
+// Ausschnitts werden gar nicht erst aufgenommen. Der waagerechte Abstand halbiert sich pro Ebene
+// (als double, damit er nicht wie bei int-Halbierung auf 0 fällt). Wird er kleiner als minOffset
+// (ein Bildschirmpixel in Weltkoordinaten), ist der ganze Teilbaum nur noch wenige Pixel breit
+// und wird als ein Sammelsymbol (AGGREGATE mit Knotenanzahl) abgelegt. Die Zahl der Einträge
+// hängt so nur vom Ausschnitt ab, nicht von der Baumgröße.
+// Beschriftungen werden beim Aufbau einmal erzeugt (über den KeyFormatter), die Kantenrichtungen
+// einmal pro Ebene.
+// Für Treffertests liegen die Einträge zusätzlich pro Ebene nach x sortiert vor (Pre-Order
+// liefert jede Ebene bereits von links nach rechts), gesucht wird per binärer Suche.
+final class TreeLayout {
+    static final byte NODE = 0;
+    static final byte NIL = 1;
+    static final byte AGGREGATE = 2;
+    static final int LEVEL_HEIGHT = 40;
+    static final double MIN_OFFSET = 1.0;
+    // Platz für den Knotenradius beim Abschneiden am Ausschnitt.
+    private static final double MARGIN = 20;
+
+    final Node root;
+    final double rootX;
+    final double rootY;
+    final double rootOffset;
+    final double minOffset;
+    final Rectangle2D view;
+    final KeyFormatter formatter;
+    private int count;
+    private byte[] kinds = new byte[64];
+    private Node[] nodes = new Node[64];
+    private double[] xs = new double[64];
+    private int[] depths = new int[64];
+    private int[] ends = new int[64];
+    private String[] labels = new String[64];
+    private String[] sizeLabels = new String[64];
+    // levels[d] = Einträge der Ebene d in aufsteigender x-Reihenfolge
+    private int[][] levels = new int[0][];
+    // Einheitsvektor der Kante zum rechten Kind für Einträge der Ebene d (links: x gespiegelt)
+    private double[] edgeUnitX = new double[0];
+    private double[] edgeUnitY = new double[0];
+
+    private TreeLayout(Node root, double rootX, double rootY, double rootOffset, double minOffset, Rectangle2D view,
+                       KeyFormatter formatter) {
+        this.root = root;
+        this.rootX = rootX;
+        this.rootY = rootY;
+        this.rootOffset = rootOffset;
+        this.minOffset = minOffset;
+        this.view = view;
+        this.formatter = formatter;
+    }
+
+    static TreeLayout compute(Node root, double rootX, double rootY, double rootOffset, double minOffset,
+                              Rectangle2D view, KeyFormatter formatter) {
+        TreeLayout layout = new TreeLayout(root, rootX, rootY, rootOffset, minOffset, view, formatter);
+        if (root != null) layout.add(root, rootX, 0);
+        layout.buildLevels();
+        return layout;
+    }
+
+    boolean matches(Node root, double rootX, double rootY, double rootOffset, double minOffset, Rectangle2D view,
+                    KeyFormatter formatter) {
+        return this.root == root && this.rootX == rootX && this.rootY == rootY && this.rootOffset == rootOffset
+                && this.minOffset == minOffset && this.view.equals(view) && this.formatter == formatter;
+    }
+
+    private void add(Node node, double x, int depth) {
+        double offset = offset(depth);
+        double reach = 2 * offset + MARGIN;
+        if (x + reach < view.getMinX() || x - reach > view.getMaxX()
+                || rootY + depth * LEVEL_HEIGHT - MARGIN > view.getMaxY()) {
+            return;
+        }
+        int index = count;
+        if (node == null) {
+            append(NIL, null, x, depth);
+        } else if (offset < minOffset && node.size > 1) {
+            append(AGGREGATE, node, x, depth);
+        } else {
+            append(NODE, node, x, depth);
+            add(node.left, x - offset, depth + 1);
+            add(node.right, x + offset, depth + 1);
+        }
+        ends[index] = count;
+    }
+
+    private void append(byte kind, Node node, double x, int depth) {
+        if (count == kinds.length) {
+            int capacity = count * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            sizeLabels = Arrays.copyOf(sizeLabels, capacity);
+        }
+        kinds[count] = kind;
+        nodes[count] = node;
+        xs[count] = x;
+        depths[count] = depth;
+        labels[count] = (kind == NODE) ? formatter.format(node.key) : null;
+        sizeLabels[count] = (kind == NODE) ? String.valueOf(node.size) : null;
+        count++;
+    }
+
+    private void buildLevels() {
+        int maxDepth = -1;
+        for (int i = 0; i < count; i++) maxDepth = Math.max(maxDepth, depths[i]);
+        int[] sizes = new int[maxDepth + 1];
+        for (int i = 0; i < count; i++) sizes[depths[i]]++;
+        levels = new int[maxDepth + 1][];
+        for (int d = 0; d <= maxDepth; d++) levels[d] = new int[sizes[d]];
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < count; i++) levels[depths[i]][sizes[depths[i]]++] = i;
+        edgeUnitX = new double[maxDepth + 1];
+        edgeUnitY = new double[maxDepth + 1];
+        for (int d = 0; d <= maxDepth; d++) {
+            double offset = offset(d);
+            double length = Math.sqrt(offset * offset + LEVEL_HEIGHT * LEVEL_HEIGHT);
+            edgeUnitX[d] = offset / length;
+            edgeUnitY[d] = LEVEL_HEIGHT / length;
+        }
+    }
+
+    // Eintrag, dessen Kreis (Radius radius) den Weltpunkt (x, y) enthält, sonst -1.
+    int hit(double x, double y, double radius) {
+        int depth = (int) Math.round((y - rootY) / LEVEL_HEIGHT);
+        if (depth < 0 || depth >= levels.length) return -1;
+        int[] level = levels[depth];
+        int lo = 0;
+        int hi = level.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (xs[level[mid]] < x) lo = mid + 1;
+            else hi = mid;
+        }
+        int best = -1;
+        double bestDistance = radius * radius;
+        for (int k = Math.max(0, lo - 1); k <= Math.min(level.length - 1, lo); k++) {
+            double dx = xs[level[k]] - x;
+            double dy = y(level[k]) - y;
+            double distance = dx * dx + dy * dy;
+            if (distance <= bestDistance) {
+                best = level[k];
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    // Tooltip-Text für einen Eintrag.
+    String describe(int i) {
+        switch (kinds[i]) {
+            case NODE:
+                return String.format(Localization.get("tooltipNode"), labels[i], nodes[i].size);
+            case AGGREGATE:
+                return String.format(Localization.get("tooltipAggregate"), nodes[i].size);
+            default:
+                return "NIL";
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    byte kind(int i) {
+        return kinds[i];
+    }
+
+    Node node(int i) {
+        return nodes[i];
+    }
+
+    double x(int i) {
+        return xs[i];
+    }
+
+    double y(int i) {
+        return rootY + depths[i] * LEVEL_HEIGHT;
+    }
+
+    int depth(int i) {
+        return depths[i];
+    }
+
+    // Index hinter dem Teilbaum von i.
+    int end(int i) {
+        return ends[i];
+    }
+
+    String label(int i) {
+        return labels[i];
+    }
+
+    String sizeLabel(int i) {
+        return sizeLabels[i];
+    }
+
+    // Abstand zu den Kindern eines Eintrags auf Ebene depth.
+    double offset(int depth) {
+        return Math.scalb(rootOffset, -depth);
+    }
+
+    double edgeUnitX(int depth) {
+        return edgeUnitX[depth];
+    }
+
+    double edgeUnitY(int depth) {
+        return edgeUnitY[depth];
+    }
+
+    // Halbe Breite des Teilbaums von i: die Kinder-Abstände summieren sich zu weniger als 2·offset.
+    double extent(int i) {
+        return 2 * offset(depths[i]);
+    }
+}
+
+// ----------------------
+// Zoom und Verschieben einer Baumansicht
+// ----------------------
+// Mausrad zoomt um den Mauszeiger, Ziehen verschiebt. Gezeichnet wird in Weltkoordinaten
+// (Zoom 1 = bisherige Darstellung), apply() setzt die Transformation. Detailstufen: unterhalb von
+// LABEL_ZOOM entfallen Beschriftungen, unterhalb von NIL_ZOOM die NIL-Blätter.
+// state() liefert eine unveränderliche Kopie der Ansicht, z.B. für das Rendern im Hintergrund;
+// jede Änderung erhöht version, so lassen sich zwischengespeicherte Bilder zuordnen.
+final class TreeViewport {
+    static final double MIN_ZOOM = 0.02;
+    static final double MAX_ZOOM = 20;
+    static final double LABEL_ZOOM = 0.5;
+    static final double NIL_ZOOM = 0.25;
+    private static final double WHEEL_STEP = 1.15;
+
+    private final JComponent view;
+    private double zoom = 1;
+    private double panX;
+    private double panY;
+    private int dragX;
+    private int dragY;
+    private int version;
+
+    TreeViewport(JComponent view) {
+        this.view = view;
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                panX += e.getX() - dragX;
+                panY += e.getY() - dragY;
+                dragX = e.getX();
+                dragY = e.getY();
+                version++;
+                view.repaint();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getX(), e.getY(), Math.pow(WHEEL_STEP, -e.getPreciseWheelRotation()));
+            }
+        };
+        view.addMouseListener(mouse);
+        view.addMouseMotionListener(mouse);
+        view.addMouseWheelListener(mouse);
+    }
+
+    // Zoomt so, dass der Weltpunkt unter (screenX, screenY) an Ort und Stelle bleibt.
+    void zoomAt(double screenX, double screenY, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        panX = screenX - (screenX - panX) * (newZoom / zoom);
+        panY = screenY - (screenY - panY) * (newZoom / zoom);
+        zoom = newZoom;
+        version++;
+        view.repaint();
+    }
+
+    // Rückt den Weltpunkt (x, y) in die Mitte der Ansicht.
+    void centerOn(double x, double y, double newZoom) {
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+        panX = view.getWidth() / 2.0 - x * zoom;
+        panY = view.getHeight() / 2.0 - y * zoom;
+        version++;
+        view.repaint();
+    }
+
+    void reset() {
+        zoom = 1;
+        panX = 0;
+        panY = 0;
+        version++;
+        view.repaint();
+    }
+
+    double zoom() {
+        return zoom;
+    }
+
+    boolean showLabels() {
+        return zoom >= LABEL_ZOOM;
+    }
+
+    boolean showNil() {
+        return zoom >= NIL_ZOOM;
+    }
+
+    void apply(Graphics2D g) {
+        state().apply(g);
+    }
+
+    double worldX(double screenX) {
+        return (screenX - panX) / zoom;
+    }
+
+    double worldY(double screenY) {
+        return (screenY - panY) / zoom;
+    }
+
+    Rectangle2D visibleWorld() {
+        return state().visibleWorld();
+    }
+
+    State state() {
+        return new State(zoom, panX, panY, view.getWidth(), view.getHeight(), version);
+    }
+
+    static final class State {
+        final double zoom;
+        final double panX;
+        final double panY;
+        final int width;
+        final int height;
+        final int version;
+
+        State(double zoom, double panX, double panY, int width, int height, int version) {
+            this.zoom = zoom;
+            this.panX = panX;
+            this.panY = panY;
+            this.width = width;
+            this.height = height;
+            this.version = version;
+        }
+
+        // Linien bleiben unabhängig vom Zoom ein Pixel breit.
+        void apply(Graphics2D g) {
+            g.translate(panX, panY);
+            g.scale(zoom, zoom);
+            g.setStroke(new BasicStroke((float) (1 / zoom)));
+        }
+
+        // Sichtbarer Bereich der Komponente in Weltkoordinaten.
+        Rectangle2D visibleWorld() {
+            return new Rectangle2D.Double(-panX / zoom, -panY / zoom, width / zoom, height / zoom);
+        }
+
+        boolean showLabels() {
+            return zoom >= LABEL_ZOOM;
+        }
+
+        boolean showNil() {
+            return zoom >= NIL_ZOOM;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof State)) return false;
+            State o = (State) other;
+            return version == o.version && width == o.width && height == o.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (version * 31 + width) * 31 + height;
+        }
+    }
+}
+
+// ----------------------
+// Zeichnen eines Layouts
+// ----------------------
+// Gemeinsame Zeichenlogik beider Baumansichten. Kanten und Sammelsymbole werden pro Bild in je
+// einem Path2D gesammelt und mit einem Aufruf gezeichnet; die Kantenrichtungen liefert das Layout
+// pro Ebene. Die Pfade bleiben ungeglättet: Java2D rastert einen geglätteten Pfad über seine
+// ganze Bounding-Box, bei über das Bild verteilten Kanten ist das ein Vielfaches teurer.
+// Geglättet sind dafür Knotenkreise und Beschriftungen: sie werden einmal pro Maßstab in kleine
+// Bilder (Sprites) gerastert und danach nur noch im Gerätekoordinatensystem kopiert, das ist
+// deutlich billiger als Kreise und Text in jedem Bild neu zu rastern.
+// Eine Instanz pro Schriftart wird von allen Panels und dem Thread des StepTileCache geteilt,
+// die Speicher sind daher synchronisiert.
+final class TreeRenderer {
+    static final int NODE_RADIUS = 15;
+    private static final long MAX_SPRITE_BYTES = 16L << 20;
+    private static final int MAX_SCALES = 2;
+    // Darüber sind nur wenige, dafür große Knoten sichtbar; sie werden direkt gezeichnet.
+    private static final double MAX_SPRITE_SCALE = 2;
+    private static TreeRenderer shared;
+
+    private final Font keyFont;
+    private final Font sizeFont;
+    private final FontRenderContext context = new FontRenderContext(null, true, true);
+    private final float keyBaseline;
+    // Schlüssel: Maßstab und KeyFormatter, denn derselbe int-Schlüssel steht je nach Formatter für
+    // eine andere Beschriftung.
+    private final LinkedHashMap<List<Object>, SpriteSet> scales = new LinkedHashMap<>(8, 0.75f, true);
+
+    private static final class Sprite {
+        final BufferedImage image;
+        // Lage des Knotenmittelpunkts im Bild
+        final int originX;
+        final int originY;
+
+        Sprite(BufferedImage image, int originX, int originY) {
+            this.image = image;
+            this.originX = originX;
+            this.originY = originY;
+        }
+    }
+
+    // Sprites eines Maßstabs. Ein beschrifteter Knoten ist ein einziges Sprite aus Kreis, Schlüssel
+    // und Teilbaumgröße (ein Kopiervorgang pro Knoten), gespeichert unter Farbe, Schlüssel und
+    // Größe. Snapshots teilen sich unveränderte Knoten, beim Blättern bleibt die Trefferquote hoch.
+    private final class SpriteSet {
+        final double scale;
+        final Sprite red;
+        final Sprite black;
+        final Sprite nil;
+        final Sprite nilLabelled;
+        // Verdrängung in Einfügereihenfolge: eine LRU-Umsortierung bei jedem Treffer kostet hier
+        // messbar mehr, als gelegentlich ein noch sichtbares Sprite neu zu rastern.
+        private final LinkedHashMap<Long, Sprite> nodes = new LinkedHashMap<>(256);
+        private long bytes;
+
+        SpriteSet(double scale) {
+            this.scale = scale;
+            red = node(Color.RED, null, null);
+            black = node(Color.BLACK, null, null);
+            nil = node(Color.GRAY, null, null);
+            nilLabelled = node(Color.GRAY, "NIL", null);
+        }
+
+        synchronized Sprite labelled(Node node, String label, String sizeLabel) {
+            long key = ((long) node.key << 32) | (((long) node.size << 1) & 0xFFFFFFFFL) | (node.isRed ? 1 : 0);
+            Sprite sprite = nodes.get(key);
+            if (sprite == null) {
+                sprite = node(node.isRed ? Color.RED : Color.BLACK, label, sizeLabel);
+                nodes.put(key, sprite);
+                bytes += sizeOf(sprite);
+                Iterator<Sprite> eldest = nodes.values().iterator();
+                while (bytes > MAX_SPRITE_BYTES && eldest.hasNext()) {
+                    bytes -= sizeOf(eldest.next());
+                    eldest.remove();
+                }
+            }
+            return sprite;
+        }
+
+        // Schlüssel zentriert im Kreis, Teilbaumgröße klein rechts oberhalb des Knotens.
+        private Sprite node(Color color, String label, String sizeLabel) {
+            int r = NODE_RADIUS;
+            Rectangle2D bounds = new Rectangle2D.Double(-r, -r, 2 * r, 2 * r);
+            float labelX = 0;
+            if (label != null) {
+                Rectangle2D text = keyFont.getStringBounds(label, context);
+                labelX = (float) -text.getWidth() / 2;
+                text.setRect(text.getX() + labelX, text.getY() + keyBaseline, text.getWidth(), text.getHeight());
+                bounds.add(text);
+            }
+            if (sizeLabel != null) {
+                Rectangle2D text = sizeFont.getStringBounds(sizeLabel, context);
+                text.setRect(text.getX() + r - 2, text.getY() - r + 4, text.getWidth(), text.getHeight());
+                bounds.add(text);
+            }
+            float x = labelX;
+            return rasterize(bounds, g -> {
+                g.setColor(color);
+                g.fill(new Ellipse2D.Double(-r, -r, 2 * r, 2 * r));
+                if (label != null) {
+                    g.setFont(keyFont);
+                    g.setColor(Color.WHITE);
+                    g.drawString(label, x, keyBaseline);
+                }
+                if (sizeLabel != null) {
+                    g.setFont(sizeFont);
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.drawString(sizeLabel, r - 2, -r + 4);
+                }
+            });
+        }
+
+        private Sprite rasterize(Rectangle2D bounds, Consumer<Graphics2D> painter) {
+            int x0 = (int) Math.floor(bounds.getMinX() * scale) - 1;
+            int y0 = (int) Math.floor(bounds.getMinY() * scale) - 1;
+            int x1 = (int) Math.ceil(bounds.getMaxX() * scale) + 1;
+            int y1 = (int) Math.ceil(bounds.getMaxY() * scale) + 1;
+            BufferedImage image = new BufferedImage(x1 - x0, y1 - y0, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+                g.translate(-x0, -y0);
+                g.scale(scale, scale);
+                painter.accept(g);
+            } finally {
+                g.dispose();
+            }
+            return new Sprite(image, -x0, -y0);
+        }
+    }
+
+    private static long sizeOf(Sprite sprite) {
+        return (long) sprite.image.getWidth() * sprite.image.getHeight() * 4;
+    }
+
+    private TreeRenderer(Font font, FontMetrics metrics) {
+        keyFont = font;
+        sizeFont = font.deriveFont(9f);
+        keyBaseline = metrics.getAscent() / 2 - 2;
+    }
+
+    static synchronized TreeRenderer forFont(Graphics g) {
+        Font font = g.getFont();
+        if (shared == null || !shared.keyFont.equals(font)) shared = new TreeRenderer(font, g.getFontMetrics());
+        return shared;
+    }
+
+    private synchronized SpriteSet sprites(double scale, KeyFormatter formatter) {
+        List<Object> key = List.of(scale, formatter);
+        SpriteSet set = scales.get(key);
+        if (set == null) {
+            set = new SpriteSet(scale);
+            scales.put(key, set);
+            Iterator<SpriteSet> eldest = scales.values().iterator();
+            while (scales.size() > MAX_SCALES) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return set;
+    }
+
+    // g2 ist bereits in Weltkoordinaten (TreeViewport.State.apply). Gezeichnet werden nur
+    // Einträge, deren Teilbaum den Clip-Bereich schneidet. Kanten gehören zum Elternknoten und
+    // werden auch gezeichnet, wenn nur die Kinder sichtbar sind.
+    void draw(Graphics2D g2, TreeLayout layout, TreeViewport.State view) {
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) clip = view.visibleWorld().getBounds();
+        boolean labels = view.showLabels();
+        boolean nil = view.showNil();
+        int r = NODE_RADIUS;
+        Path2D.Double edges = new Path2D.Double();
+        Path2D.Double aggregates = new Path2D.Double();
+        int[] visible = new int[layout.count()];
+        int visibleCount = 0;
+        int i = 0;
+        while (i < layout.count()) {
+            double x = layout.x(i);
+            double y = layout.y(i);
+            double extent = layout.extent(i) + r;
+            if (x + extent < clip.x || x - extent > clip.x + clip.width || y - r > clip.y + clip.height) {
+                i = layout.end(i);
+                continue;
+            }
+            boolean rowVisible = y + r >= clip.y;
+            switch (layout.kind(i)) {
+                case TreeLayout.NODE: {
+                    Node node = layout.node(i);
+                    int depth = layout.depth(i);
+                    double dx = layout.edgeUnitX(depth) * r;
+                    double dy = layout.edgeUnitY(depth) * r;
+                    double offset = layout.offset(depth);
+                    double childY = y + TreeLayout.LEVEL_HEIGHT;
+                    if (nil || node.left != null) {
+                        edges.moveTo(x - dx, y + dy);
+                        edges.lineTo(x - offset + dx, childY - dy);
+                    }
+                    if (nil || node.right != null) {
+                        edges.moveTo(x + dx, y + dy);
+                        edges.lineTo(x + offset - dx, childY - dy);
+                    }
+                    if (rowVisible) visible[visibleCount++] = i;
+                    break;
+                }
+                case TreeLayout.NIL:
+                    if (rowVisible && nil) visible[visibleCount++] = i;
+                    break;
+                default:
+                    // Sammelsymbol für einen Teilbaum, der schmaler als wenige Pixel wäre.
+                    if (rowVisible) {
+                        double halfWidth = Math.max(3, Math.ceil(layout.extent(i)));
+                        aggregates.moveTo(x, y - r);
+                        aggregates.lineTo(x - halfWidth, y + r);
+                        aggregates.lineTo(x + halfWidth, y + r);
+                        aggregates.closePath();
+                    }
+                    break;
+            }
+            i++;
+        }
+
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2.setColor(Color.WHITE);
+        g2.draw(edges);
+        g2.setColor(Color.GRAY);
+        g2.fill(aggregates);
+        if (visibleCount == 0) return;
+
+        AffineTransform world = g2.getTransform();
+        if (world.getScaleX() > MAX_SPRITE_SCALE) {
+            drawDirect(g2, layout, visible, visibleCount, labels);
+            return;
+        }
+
+        // Sprites pixelgenau in Gerätekoordinaten kopieren
+        SpriteSet sprites = sprites(world.getScaleX(), layout.formatter);
+        g2.setTransform(new AffineTransform());
+        try {
+            for (int k = 0; k < visibleCount; k++) {
+                int entry = visible[k];
+                int x = (int) Math.round(world.getScaleX() * layout.x(entry) + world.getTranslateX());
+                int y = (int) Math.round(world.getScaleY() * layout.y(entry) + world.getTranslateY());
+                Sprite sprite;
+                if (layout.kind(entry) == TreeLayout.NIL) {
+                    sprite = labels ? sprites.nilLabelled : sprites.nil;
+                } else if (labels) {
+                    sprite = sprites.labelled(layout.node(entry), layout.label(entry), layout.sizeLabel(entry));
+                } else {
+                    sprite = layout.node(entry).isRed ? sprites.red : sprites.black;
+                }
+                g2.drawImage(sprite.image, x - sprite.originX, y - sprite.originY, null);
+            }
+        } finally {
+            g2.setTransform(world);
+        }
+    }
+
+    private void drawDirect(Graphics2D g2, TreeLayout layout, int[] visible, int visibleCount, boolean labels) {
+        int r = NODE_RADIUS;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Ellipse2D.Double circle = new Ellipse2D.Double();
+        for (int k = 0; k < visibleCount; k++) {
+            int entry = visible[k];
+            float x = (float) layout.x(entry);
+            float y = (float) layout.y(entry);
+            boolean isNil = layout.kind(entry) == TreeLayout.NIL;
+            circle.setFrame(x - r, y - r, 2 * r, 2 * r);
+            g2.setColor(isNil ? Color.GRAY : layout.node(entry).isRed ? Color.RED : Color.BLACK);
+            g2.fill(circle);
+            if (!labels) continue;
+            String label = isNil ? "NIL" : layout.label(entry);
+            g2.setFont(keyFont);
+            g2.setColor(Color.WHITE);
+            g2.drawString(label, x - (float) keyFont.getStringBounds(label, context).getWidth() / 2, y + keyBaseline);
+            if (isNil) continue;
+            g2.setFont(sizeFont);
+            g2.setColor(Color.LIGHT_GRAY);
+            g2.drawString(layout.sizeLabel(entry), x + r - 2, y - r + 4);
+        }
+    }
+
+}
+
+// ----------------------
+// Gemeinsame Basis der Baumansichten
+// ----------------------
+// Zoom und Verschieben, Tooltips, Doppelklick-Fokus und das zwischengespeicherte Layout des
+// gezeigten Snapshots; gezeichnet wird über den geteilten TreeRenderer.
+abstract class TreePanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    protected final TreeViewport viewport = new TreeViewport(this);
+    protected TreeLayout layout;
+    protected TreeRenderer renderer;
+
+    TreePanel() {
+        setBackground(new Color(40, 40, 40));
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter() {
+            // Doppelklick auf einen Knoten zoomt hinein, auf freie Fläche stellt die Ansicht zurück.
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() != 2) return;
+                int hit = hitTest(e);
+                if (hit >= 0) viewport.centerOn(layout.x(hit), layout.y(hit), viewport.zoom() * 2);
+                else viewport.reset();
+            }
+        });
+    }
+
+    // Aktuell gezeigter Snapshot oder null.
+    protected abstract Node shownTree();
+
+    // Beschriftung für shownTree(); int-Schlüssel der eigenen Schritte stehen dezimal da.
+    protected KeyFormatter shownFormatter() {
+        return KeyFormatter.DECIMAL;
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        int hit = hitTest(e);
+        return (hit >= 0) ? layout.describe(hit) : null;
+    }
+
+    // Wurde zuletzt ein vorgerendertes Bild gezeigt, fehlt das Layout noch und wird hier nachgeholt.
+    private int hitTest(MouseEvent e) {
+        Node root = shownTree();
+        if (root == null) return -1;
+        updateLayout(root, viewport.state());
+        return layout.hit(viewport.worldX(e.getX()), viewport.worldY(e.getY()), TreeRenderer.NODE_RADIUS);
+    }
+
+    protected void updateLayout(Node root, TreeViewport.State view) {
+        KeyFormatter formatter = shownFormatter();
+        if (layout == null || !matches(layout, root, view, formatter)) layout = layoutFor(root, view, formatter);
+    }
+
+    protected static TreeLayout layoutFor(Node root, TreeViewport.State view, KeyFormatter formatter) {
+        return TreeLayout.compute(root, view.width / 2.0, 80, view.width / 4.0, TreeLayout.MIN_OFFSET / view.zoom,
+                view.visibleWorld(), formatter);
+    }
+
+    private static boolean matches(TreeLayout layout, Node root, TreeViewport.State view, KeyFormatter formatter) {
+        return layout.matches(root, view.width / 2.0, 80, view.width / 4.0, TreeLayout.MIN_OFFSET / view.zoom,
+                view.visibleWorld(), formatter);
+    }
+
+    protected void drawTree(Graphics g, Node root) {
+        if (root == null) return;
+        if (renderer == null) renderer = TreeRenderer.forFont(g);
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            TreeViewport.State view = viewport.state();
+            view.apply(g2);
+            updateLayout(root, view);
+            renderer.draw(g2, layout, view);
+        } finally {
+            g2.dispose();
+        }
+    }
+}
+
+// ----------------------
+// Bildspeicher für die Schrittnavigation
+// ----------------------
+// Schritte werden auf einem Hintergrund-Thread vorab in BufferedImages gerendert, paintComponent
+// kopiert beim Blättern dann nur noch das fertige Bild. Schlüssel ist der Snapshot selbst (über
+// Identität, Snapshots sind unveränderlich), alle Bilder gehören zu genau einer Ansicht
+// (TreeViewport.State); ändert sich Zoom, Verschiebung oder Größe, wird der Speicher geleert.
+// Verdrängt wird nach LRU, sobald MAX_BYTES überschritten sind. Verdrängte Bilder werden
+// wiederverwendet, damit beim Blättern nicht laufend mehrere MB große Arrays anfallen; ausgenommen
+// ist das zuletzt ausgelieferte Bild, das der EDT womöglich gerade kopiert.
+final class StepTileCache {
+    static final long MAX_BYTES = 64L << 20;
+    private static final int MAX_SPARE = 2;
+
+    interface Renderer {
+        // Zeichnet den Baum vollständig (inklusive Hintergrund) in target.
+        void render(Node root, TreeViewport.State view, BufferedImage target);
+    }
+
+    private final Renderer renderer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "step-tile-renderer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final LinkedHashMap<Node, BufferedImage> tiles = new LinkedHashMap<>(32, 0.75f, true);
+    private final Set<Node> pending = new HashSet<>();
+    private Set<Node> wanted = new HashSet<>();
+    private final List<BufferedImage> spare = new ArrayList<>();
+    private BufferedImage served;
+    private TreeViewport.State view;
+    private long bytes;
+    // Erhöht von clear(); Aufträge von davor werden verworfen (z.B. mit altem KeyFormatter gerendert).
+    private int generation;
+
+    StepTileCache(Renderer renderer) {
+        this.renderer = renderer;
+    }
+
+    synchronized BufferedImage get(Node root, TreeViewport.State current) {
+        switchView(current);
+        BufferedImage image = tiles.get(root);
+        if (image != null) served = image;
+        return image;
+    }
+
+    // Fehltreffer rendert der Aufrufer selbst; das Bild wird dann für spätere Besuche übernommen.
+    BufferedImage render(Node root, TreeViewport.State current) {
+        BufferedImage image = obtain(current);
+        renderer.render(root, current, image);
+        synchronized (this) {
+            switchView(current);
+            store(root, image);
+            served = image;
+        }
+        return image;
+    }
+
+    // Ersetzt die Liste der vorzuhaltenden Schritte (wichtigste zuerst). Aufträge für Schritte, die
+    // inzwischen nicht mehr gefragt sind, verfallen ungerendert.
+    void prefetch(List<Node> roots, TreeViewport.State current) {
+        List<Node> submit = new ArrayList<>();
+        int submitted;
+        synchronized (this) {
+            submitted = generation;
+            switchView(current);
+            wanted = new HashSet<>(roots);
+            for (Node root : roots) {
+                if (root != null && !tiles.containsKey(root) && pending.add(root)) submit.add(root);
+            }
+        }
+        for (Node root : submit) {
+            executor.execute(() -> renderQueued(root, current, submitted));
+        }
+    }
+
+    synchronized void clear() {
+        tiles.clear();
+        spare.clear();
+        pending.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    private void renderQueued(Node root, TreeViewport.State target, int submitted) {
+        synchronized (this) {
+            if (submitted != generation) return;
+            if (!target.equals(view) || !wanted.contains(root)) {
+                pending.remove(root);
+                return;
+            }
+        }
+        BufferedImage image = obtain(target);
+        renderer.render(root, target, image);
+        synchronized (this) {
+            if (submitted != generation) return;
+            pending.remove(root);
+            if (target.equals(view)) store(root, image);
+        }
+    }
+
+    private synchronized BufferedImage obtain(TreeViewport.State target) {
+        for (int i = spare.size() - 1; i >= 0; i--) {
+            BufferedImage image = spare.remove(i);
+            if (image.getWidth() == target.width && image.getHeight() == target.height) return image;
+        }
+        return new BufferedImage(target.width, target.height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private void store(Node root, BufferedImage image) {
+        BufferedImage old = tiles.put(root, image);
+        if (old != null) bytes -= sizeOf(old);
+        bytes += sizeOf(image);
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while (bytes > MAX_BYTES && eldest.hasNext()) {
+            BufferedImage evicted = eldest.next();
+            eldest.remove();
+            bytes -= sizeOf(evicted);
+            if (evicted != served && spare.size() < MAX_SPARE) spare.add(evicted);
+        }
+    }
+
+    private void switchView(TreeViewport.State current) {
+        if (current.equals(view)) return;
+        view = current;
+        clear();
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
+
+// ----------------------
+// GUI – TreeVisualizer
+// ----------------------
+class TreeVisualizer extends TreePanel implements TreeStepListener {
+    private RedBlackTree tree;
+    private int stepNumber = 0;
+    private JButton btnIntermediate = new JButton(Localization.get("btnShowIntermediate"));
+    private List<Node> currentIntermediateStates = new ArrayList<>();
+    private List<String> currentRuleMessages = new ArrayList<>();
+    private Node previewTree;
+    private TreeDisplay display;
+    // Vorgerendert werden PREFETCH_STEPS Schritte in Blätterrichtung und ein Viertel davon dahinter
+    private static final int PREFETCH_STEPS = 8;
+    private int direction = 1;
+    private int paintedVersion = -1;
+    private final StepTileCache tiles = new StepTileCache(this::renderTile);
+    private static final String[] LEGEND_KEYS = {
+            "legendTitle", "legendArrowLeft", "legendArrowRight", "legendEnterNew", "legendEnterAppend",
+            "legendOpen", "legendSession", "legendZoom", "legendFocus", "legendStats", "legendEsc"
+    };
+    // Regel- und Legendentext, aufbereitet für overlayState in overlayLanguage (siehe layoutOverlay)
+    private TreeState overlayState;
+    private String overlayLanguage;
+    private String[] ruleLines;
+    private Color[] ruleColors;
+    private String[] legendLines;
+    private Font overlayFont;
+    private boolean statsVisible;
+
+    public TreeVisualizer(RedBlackTree tree) {
+        this.tree = tree;
+        setLayout(null); // Absolute Positionierung
+
+        btnIntermediate.setFont(btnIntermediate.getFont().deriveFont(10f));
+        btnIntermediate.addActionListener(e -> {
+            IntermediateStepsWindow win = new IntermediateStepsWindow(
+                    SwingUtilities.getWindowAncestor(this),
+                    currentIntermediateStates,
+                    currentRuleMessages,
+                    Localization.get("intermediateTitle")
+            );
+            if (btnIntermediate.isEnabled()) {
+                win.setVisible(true);
+            }
+        });
+        btnIntermediate.setVisible(true);
+        add(btnIntermediate);
+    }
+
+    @Override
+    public void doLayout() {
+        super.doLayout();
+        btnIntermediate.setBounds(getWidth() / 2 - 60, getHeight() - 120, 120, 25);
+    }
+
+    public void setTree(RedBlackTree tree) {
+        this.tree = tree;
+        this.display = null;
+        tiles.clear();
+        repaint();
+    }
+
+    // Zeigt einen Baum mit beliebigem Schlüsseltyp (siehe TreeDisplay, Main --timestamps/--words)
+    // anstelle der Schritte, beschriftet mit dessen KeyFormatter. null, ein neuer Baum (setTree)
+    // oder ein neuer Schritt kehren zu den Schritten zurück.
+    public void showDisplay(TreeDisplay display) {
+        this.display = display;
+        repaint();
+        prefetch();
+    }
+
+    public void updateStep(int step) {
+        this.stepNumber = step;
+    }
+
+    // Blendet die Messwerte (TreeMetrics) oben links ein oder aus.
+    public void toggleStats() {
+        statsVisible = !statsVisible;
+        repaint();
+    }
+
+    // Zwischenstand während des Ladens (siehe KeyLoader); null zeigt wieder den aktuellen Schritt.
+    public void showPreview(Node snapshot) {
+        this.previewTree = snapshot;
+        if (snapshot != null) display = null;
+        repaint();
+    }
+
+    @Override
+    public void stepShown(int step, TreeState state) {
+        display = null;
+        if (step != stepNumber) direction = (step > stepNumber) ? 1 : -1;
+        updateStep(step);
+        setShowIntermediateButton(state.intermediateStates.size() >= 2, state.intermediateStates, state.intermediateRules());
+        prefetch();
+    }
+
+    @Override
+    protected KeyFormatter shownFormatter() {
+        TreeDisplay shown = display;
+        return (shown != null) ? shown.formatter : KeyFormatter.DECIMAL;
+    }
+
+    @Override
+    protected Node shownTree() {
+        if (display != null) return display.root;
+        if (previewTree != null) return previewTree;
+        return (tree != null) ? tree.getCurrentTree() : null;
+    }
+
+    // Die Snapshots der Nachbarschritte werden hier auf dem EDT aufgelöst (TreeHistory ist nicht
+    // threadsicher), gerendert wird dann nur noch auf unveränderlichen Knoten.
+    private void prefetch() {
+        if (tree == null || display != null || previewTree != null || renderer == null || getWidth() <= 0 || getHeight() <= 0) return;
+        List<TreeState> steps = tree.getSteps();
+        int current = tree.getCurrentStep();
+        List<Node> roots = new ArrayList<>();
+        for (int d = 1; d <= PREFETCH_STEPS; d++) {
+            int ahead = current + direction * d;
+            if (ahead >= 0 && ahead < steps.size()) roots.add(steps.get(ahead).tree());
+            int behind = current - direction * d;
+            if (d <= PREFETCH_STEPS / 4 && behind >= 0 && behind < steps.size()) roots.add(steps.get(behind).tree());
+        }
+        tiles.prefetch(roots, viewport.state());
+    }
+
+    public void setShowIntermediateButton(boolean show, List<Node> intermediateStates, List<String> ruleMessages){
+        this.currentIntermediateStates = intermediateStates;
+        this.currentRuleMessages = ruleMessages;
+        btnIntermediate.setVisible(show && intermediateStates.size() >= 2);
+        btnIntermediate.setEnabled(intermediateStates.size() >= 2);
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        TreeMetrics.PaintEvent event = TreeMetrics.beginPaint();
+        long start = System.nanoTime();
+        boolean cached = false;
+        super.paintComponent(g);
+        if (renderer == null) {
+            renderer = TreeRenderer.forFont(g);
+            prefetch();
+        }
+        if (display != null || previewTree != null) {
+            Node root = shownTree();
+            TreeMetrics.observe(root);
+            drawTree(g, root);
+        } else if (tree != null) {
+            Node root = tree.getCurrentTree();
+            TreeMetrics.observe(root);
+            // Während Zoom oder Verschiebung ändert sich die Ansicht mit jedem Bild, dann lohnt sich
+            // das Zwischenspeichern nicht und es wird direkt gezeichnet.
+            TreeViewport.State view = viewport.state();
+            BufferedImage tile = (root != null) ? tiles.get(root, view) : null;
+            cached = tile != null;
+            boolean stable = view.version == paintedVersion;
+            paintedVersion = view.version;
+            if (tile == null && stable && root != null && view.width > 0 && view.height > 0) {
+                tile = tiles.render(root, view);
+            }
+            if (tile != null) {
+                g.drawImage(tile, 0, 0, null);
+            } else {
+                drawTree(g, root);
+            }
+        }
+
+        Font orig = g.getFont();
+        if (overlayFont == null) overlayFont = orig.deriveFont(Font.PLAIN, 10f);
+        g.setFont(overlayFont);
+        TreeState state = (display != null || previewTree != null || tree == null) ? null : tree.getCurrentState();
+        if (!Main.LANGUAGE.equals(overlayLanguage) || state != overlayState) layoutOverlay(state);
+
+        int fixedRulesY = getHeight() - (ruleLines.length * 12 + 20);
+        for (int i = 0; i < ruleLines.length; i++) {
+            g.setColor(ruleColors[i]);
+            g.drawString(ruleLines[i], 20, fixedRulesY);
+            fixedRulesY += 12;
+        }
+
+        int legendX = getWidth() - 220;
+        int legendY = getHeight() - (legendLines.length * 12 + 20);
+        g.setColor(Color.LIGHT_GRAY);
+        for (String l : legendLines) {
+            g.drawString(l, legendX, legendY);
+            legendY += 12;
+        }
+
+        if (statsVisible) drawStats(g);
+        g.setFont(orig);
+        TreeMetrics.painted(event, stepNumber, cached, System.nanoTime() - start);
+    }
+
+    private void drawStats(Graphics g) {
+        List<String> lines = TreeMetrics.overlayLines();
+        FontMetrics fm = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) width = Math.max(width, fm.stringWidth(line));
+        g.setColor(new Color(0, 0, 0, 170));
+        g.fillRect(10, 10, width + 16, lines.size() * 12 + 10);
+        g.setColor(Color.LIGHT_GRAY);
+        int y = 10 + 5 + fm.getAscent();
+        for (String line : lines) {
+            g.drawString(line, 18, y);
+            y += 12;
+        }
+    }
+
+    // Fall-Zeilen der festen Regeln (sie beginnen mit der Bezeichnung ihres Regelfalls, z.B.
+    // "Fall 2:") werden gelb hervorgehoben und um den ersten Schritt ergänzt, in dem der Fall im
+    // gezeigten Schritt angewendet wurde.
+    private void layoutOverlay(TreeState state) {
+        overlayState = state;
+        overlayLanguage = Main.LANGUAGE;
+        ruleLines = Localization.get("fixedRules").split("\n");
+        ruleColors = new Color[ruleLines.length];
+        List<RuleCase> applied = (state != null) ? state.rules : List.of();
+        String stepPrefix = Localization.get("stepPrefix");
+        for (int i = 0; i < ruleLines.length; i++) {
+            ruleColors[i] = Color.LIGHT_GRAY;
+            for (RuleCase rule : RuleCase.values()) {
+                if (!ruleLines[i].startsWith(rule.label() + ":")) continue;
+                ruleColors[i] = Color.YELLOW;
+                int step = applied.indexOf(rule);
+                if (step >= 0) ruleLines[i] += " (" + stepPrefix + " " + (step + 1) + ")";
+                break;
+            }
+        }
+        legendLines = new String[LEGEND_KEYS.length];
+        for (int i = 0; i < LEGEND_KEYS.length; i++) legendLines[i] = Localization.get(LEGEND_KEYS[i]);
+    }
+
+    // Läuft auf dem Thread des StepTileCache; Layout und Renderer sind unabhängig vom Panel-Zustand.
+    private void renderTile(Node root, TreeViewport.State view, BufferedImage image) {
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setColor(getBackground());
+            g2.fillRect(0, 0, view.width, view.height);
+            view.apply(g2);
+            renderer.draw(g2, layoutFor(root, view, KeyFormatter.DECIMAL), view);
+        } finally {
+            g2.dispose();
+        }
+    }
+}
+
+// ----------------------
+// Fenster für Zwischenzustände
+// ----------------------
+class IntermediateStepsWindow extends JDialog {
+    private List<Node> intermediateStates;
+    private List<String> ruleMessages;
+    private int currentIndex = 0;
+    private IntermediateTreePanel treePanel;
+    private JLabel lblDescription = new JLabel("", SwingConstants.CENTER);
+
+    public IntermediateStepsWindow(Window owner, List<Node> intermediateStates, List<String> ruleMessages, String title) {
+        super(owner, title, ModalityType.APPLICATION_MODAL);
+        this.intermediateStates = intermediateStates;
+        this.ruleMessages = ruleMessages;
+
+        setSize(800, 600);
+        setLocationRelativeTo(owner);
+        setLayout(new BorderLayout());
+
+        treePanel = new IntermediateTreePanel(intermediateStates.get(currentIndex));
+        add(treePanel, BorderLayout.CENTER);
+
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.setBackground(new Color(40, 40, 40));
+
+        lblDescription.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        lblDescription.setForeground(Color.YELLOW);
+        bottomPanel.add(lblDescription, BorderLayout.CENTER);
+
+        JLabel lblInst = new JLabel(Localization.get("intermediateLegend"), SwingConstants.CENTER);
+        lblInst.setFont(new Font("SansSerif", Font.PLAIN, 10));
+        lblInst.setForeground(Color.LIGHT_GRAY);
+        bottomPanel.add(lblInst, BorderLayout.SOUTH);
+
+        add(bottomPanel, BorderLayout.SOUTH);
+
+        updateRuleLabel();
+
+        addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
+                    if (currentIndex < intermediateStates.size() - 1) {
+                        currentIndex++;
+                        treePanel.setTreeState(intermediateStates.get(currentIndex));
+                        updateRuleLabel();
+                    }
+                } else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
+                    if (currentIndex > 0) {
+                        currentIndex--;
+                        treePanel.setTreeState(intermediateStates.get(currentIndex));
+                        updateRuleLabel();
+                    }
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    dispose();
+                }
+            }
+        });
+
+        setFocusable(true);
+        requestFocusInWindow();
+
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                if (owner instanceof JFrame) {
+                    ((JFrame) owner).requestFocusInWindow();
+                }
+            }
+
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                if (owner instanceof JFrame) {
+                    ((JFrame) owner).requestFocusInWindow();
+                }
+            }
+        });
+    }
+
+    private void updateRuleLabel() {
+        if (currentIndex < ruleMessages.size()) {
+            String ruleKey = ruleMessages.get(currentIndex); // z. B. "Fall 2" oder "Case 3"
+            String[] allRules = Localization.get("fixedRules").split("\n");
+            for (String line : allRules) {
+                if (line.contains(ruleKey)) {
+                    lblDescription.setText(line);
+                    return;
+                }
+            }
+            lblDescription.setText(ruleKey); // Fallback
+        } else {
+            lblDescription.setText("");
+        }
+    }
+}
+
+// ----------------------
+// Panel zum Zeichnen eines einzelnen Zwischenzustandes
+// ----------------------
+class IntermediateTreePanel extends TreePanel {
+    private Node treeState;
+    public IntermediateTreePanel(Node treeState) {
+        this.treeState = treeState;
+    }
+    public void setTreeState(Node treeState) {
+        this.treeState = treeState;
+        repaint();
+    }
+    @Override
+    protected Node shownTree() {
+        return treeState;
+    }
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if(treeState != null){
+            drawTree(g, treeState);
+        }
+    }
+}
+
+// ----------------------
+// Messwerte (JMX, JFR und Overlay)
+// ----------------------
+// Prozessweite Zähler für die Arbeit von RedBlackTree: Rotationen, angewendete Regelfälle,
+// Umfärbungen und kopierte Snapshot-Knoten. LongAdder halten das Zählen auf dem heißen Pfad billig,
+// auch wenn mehrere Threads einfügen. Höhe und Schwarzhöhe beziehen sich auf den zuletzt
+// gezeichneten Snapshot (observe); Snapshots sind unveränderlich, also darf jeder Thread sie
+// lesen, berechnet wird einmal pro Snapshot. Latenzen von Einfügen und Zeichnen landen in
+// LatencyHistograms.
+// Sichtbar sind die Werte über JMX als rbtree:type=TreeMetrics (register), im Overlay des
+// TreeVisualizer (Taste M) und als JFR-Events rbtree.Insert / rbtree.Paint, sofern eine
+// Aufzeichnung läuft (z.B. java -XX:StartFlightRecording=filename=rbtree.jfr -cp target/classes Main).
+final class TreeMetrics {
+    // Geschätzte Größe eines Node mit komprimierten Referenzen: Header, key, size, isRed, vier Referenzen.
+    static final int NODE_BYTES = 40;
+
+    private static final LongAdder ROTATIONS_LEFT = new LongAdder();
+    private static final LongAdder ROTATIONS_RIGHT = new LongAdder();
+    private static final LongAdder RECOLORS = new LongAdder();
+    private static final LongAdder SNAPSHOT_NODES = new LongAdder();
+    private static final LongAdder[] FIXUPS = new LongAdder[RuleCase.values().length];
+    static final LatencyHistogram INSERTS = new LatencyHistogram();
+    static final LatencyHistogram PAINTS = new LatencyHistogram();
+
+    static {
+        for (int i = 0; i < FIXUPS.length; i++) FIXUPS[i] = new LongAdder();
+    }
+
+    private static volatile Node observed;
+    // Höhe und Schwarzhöhe von shapeRoot, einmal pro Snapshot berechnet
+    private static Node shapeRoot;
+    private static int height;
+    private static int blackHeight;
+
+    private TreeMetrics() {
+    }
+
+    static void rotation(boolean left) {
+        (left ? ROTATIONS_LEFT : ROTATIONS_RIGHT).increment();
+    }
+
+    static void fixup(RuleCase rule) {
+        FIXUPS[rule.ordinal()].increment();
+    }
+
+    static void recolor() {
+        RECOLORS.increment();
+    }
+
+    static void snapshotNode() {
+        SNAPSHOT_NODES.increment();
+    }
+
+    static void observe(Node root) {
+        observed = root;
+    }
+
+    static InsertEvent beginInsert() {
+        InsertEvent event = new InsertEvent();
+        event.begin();
+        return event;
+    }
+
+    static void inserted(InsertEvent event, int key, int fixups, long nanos) {
+        INSERTS.record(nanos);
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.key = key;
+        event.fixups = fixups;
+        event.commit();
+    }
+
+    static PaintEvent beginPaint() {
+        PaintEvent event = new PaintEvent();
+        event.begin();
+        return event;
+    }
+
+    static void painted(PaintEvent event, int step, boolean cached, long nanos) {
+        PAINTS.record(nanos);
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.step = step;
+        event.cached = cached;
+        event.commit();
+    }
+
+    static long rotationsLeft() {
+        return ROTATIONS_LEFT.sum();
+    }
+
+    static long rotationsRight() {
+        return ROTATIONS_RIGHT.sum();
+    }
+
+    static long fixups(RuleCase rule) {
+        return FIXUPS[rule.ordinal()].sum();
+    }
+
+    static long recolors() {
+        return RECOLORS.sum();
+    }
+
+    static long snapshotNodes() {
+        return SNAPSHOT_NODES.sum();
+    }
+
+    static int treeSize() {
+        Node root = observed;
+        return (root != null) ? root.size : 0;
+    }
+
+    static synchronized int height() {
+        updateShape();
+        return height;
+    }
+
+    static synchronized int blackHeight() {
+        updateShape();
+        return blackHeight;
+    }
+
+    private static void updateShape() {
+        Node root = observed;
+        if (root == shapeRoot && root != null) return;
+        shapeRoot = root;
+        height = heightOf(root);
+        // Schwarze Knoten auf dem linken Rand, NIL-Blätter mitgezählt (Regel 5 macht jeden Pfad gleich)
+        blackHeight = 1;
+        for (Node node = root; node != null; node = node.left) {
+            if (!node.isRed) blackHeight++;
+        }
+        if (root == null) blackHeight = 0;
+    }
+
+    private static int heightOf(Node node) {
+        return (node == null) ? 0 : 1 + Math.max(heightOf(node.left), heightOf(node.right));
+    }
+
+    static synchronized void reset() {
+        ROTATIONS_LEFT.reset();
+        ROTATIONS_RIGHT.reset();
+        RECOLORS.reset();
+        SNAPSHOT_NODES.reset();
+        for (LongAdder fixups : FIXUPS) fixups.reset();
+        INSERTS.reset();
+        PAINTS.reset();
+    }
+
+    // Zeilen für das Overlay im TreeVisualizer.
+    static List<String> overlayLines() {
+        long nodes = snapshotNodes();
+        return List.of(
+                String.format(Localization.get("statsRotations"), rotationsLeft() + rotationsRight(), rotationsLeft(), rotationsRight()),
+                String.format(Localization.get("statsInsertCases"), fixups(RuleCase.INSERT_1), fixups(RuleCase.INSERT_2),
+                        fixups(RuleCase.INSERT_3)),
+                String.format(Localization.get("statsDeleteCases"), fixups(RuleCase.DELETE_1), fixups(RuleCase.DELETE_2),
+                        fixups(RuleCase.DELETE_3), fixups(RuleCase.DELETE_4)),
+                String.format(Localization.get("statsRecolors"), recolors()),
+                String.format(Localization.get("statsSnapshots"), nodes, nodes * NODE_BYTES / 1024),
+                String.format(Localization.get("statsHeight"), height(), blackHeight(), treeSize()),
+                String.format(Localization.get("statsInsert"), INSERTS.count(), INSERTS.percentile(0.5) / 1e3, INSERTS.percentile(0.99) / 1e3),
+                String.format(Localization.get("statsPaint"), PAINTS.count(), PAINTS.percentile(0.5) / 1e6, PAINTS.percentile(0.99) / 1e6));
+    }
+
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("rbtree:type=TreeMetrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // bereits registriert
+        } catch (JMException e) {
+            throw new IllegalStateException("TreeMetrics konnte nicht registriert werden", e);
+        }
+    }
+
+    // Histogramm mit vier Unterteilungen pro Zweierpotenz (Auflösung etwa 25 %), Dauern in ns.
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 4;
+        private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, SUB_BUCKETS);
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            buckets[exponent * SUB_BUCKETS + sub].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long mean() {
+            long n = count.sum();
+            return (n == 0) ? 0 : total.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Obergrenze des Buckets, in dem das Quantil q liegt, höchstens das Maximum.
+        long percentile(double q) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen < target) continue;
+                int exponent = i / SUB_BUCKETS;
+                long upper = ((long) (SUB_BUCKETS + i % SUB_BUCKETS + 1) << (exponent - 2)) - 1;
+                return Math.min(upper, max());
+            }
+            return max();
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) bucket.reset();
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+    @Name("rbtree.Insert")
+    @Label("Einfügen")
+    @Category("Rot-Schwarz-Baum")
+    static final class InsertEvent extends Event {
+        @Label("Schlüssel")
+        int key;
+        @Label("Angewendete Regelfälle")
+        int fixups;
+    }
+
+    @Name("rbtree.Paint")
+    @Label("Zeichnen")
+    @Category("Rot-Schwarz-Baum")
+    static final class PaintEvent extends Event {
+        @Label("Schritt")
+        int step;
+        @Label("Aus dem Bildspeicher")
+        boolean cached;
+    }
+
+    // JMX-Sicht als DynamicMBean: eine Standard-MBean bräuchte ein öffentliches Interface, das in
+    // dieser Datei neben Main nicht möglich ist. Alle Attribute sind nur lesbar, reset() setzt die
+    // Zähler zurück.
+    private static final class Bean implements DynamicMBean {
+        private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        // Typ je Attribut, fest angegeben: getMBeanInfo soll keinen Wert berechnen (heightOf ist O(n)).
+        private final Map<String, String> types = new HashMap<>();
+
+        Bean() {
+            add("Rotations", Long.class, () -> rotationsLeft() + rotationsRight());
+            add("RotationsLeft", Long.class, TreeMetrics::rotationsLeft);
+            add("RotationsRight", Long.class, TreeMetrics::rotationsRight);
+            for (RuleCase rule : RuleCase.values()) {
+                add(attributeName(rule), Long.class, () -> fixups(rule));
+            }
+            add("Recolors", Long.class, TreeMetrics::recolors);
+            add("SnapshotNodes", Long.class, TreeMetrics::snapshotNodes);
+            add("SnapshotBytes", Long.class, () -> snapshotNodes() * NODE_BYTES);
+            add("TreeSize", Integer.class, TreeMetrics::treeSize);
+            add("TreeHeight", Integer.class, TreeMetrics::height);
+            add("BlackHeight", Integer.class, TreeMetrics::blackHeight);
+            add("Inserts", Long.class, INSERTS::count);
+            add("InsertMeanNanos", Long.class, INSERTS::mean);
+            add("InsertP50Nanos", Long.class, () -> INSERTS.percentile(0.5));
+            add("InsertP99Nanos", Long.class, () -> INSERTS.percentile(0.99));
+            add("InsertMaxNanos", Long.class, INSERTS::max);
+            add("Paints", Long.class, PAINTS::count);
+            add("PaintMeanNanos", Long.class, PAINTS::mean);
+            add("PaintP50Nanos", Long.class, () -> PAINTS.percentile(0.5));
+            add("PaintP99Nanos", Long.class, () -> PAINTS.percentile(0.99));
+            add("PaintMaxNanos", Long.class, PAINTS::max);
+        }
+
+        private void add(String name, Class<?> type, Supplier<Object> value) {
+            attributes.put(name, value);
+            types.put(name, type.getName());
+        }
+
+        // INSERT_1 -> InsertCase1, DELETE_3 -> DeleteCase3
+        private static String attributeName(RuleCase rule) {
+            String name = rule.name();
+            int underscore = name.indexOf('_');
+            return name.charAt(0) + name.substring(1, underscore).toLowerCase(Locale.ROOT) + "Case" + name.substring(underscore + 1);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Supplier<Object> value = attributes.get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value.get();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                Supplier<Object> value = attributes.get(name);
+                if (value != null) list.add(new Attribute(name, value.get()));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " ist nur lesbar");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList list) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (!action.equals("reset")) throw new ReflectionException(new NoSuchMethodException(action));
+            reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (String name : attributes.keySet()) {
+                infos.add(new MBeanAttributeInfo(name, types.get(name), name, true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Setzt alle Zähler zurück",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(TreeMetrics.class.getName(), "Messwerte der Rot-Schwarz-Bäume",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
         }
     }
 }
 
 // ----------------------
-// Panel zum Zeichnen eines einzelnen Zwischenzustandes
-// ----------------------
-class IntermediateTreePanel extends JPanel {
-    private Node treeState;
-    private final int nodeRadius = 15;
-    public IntermediateTreePanel(Node treeState) {
-        this.treeState = treeState;
-        setBackground(new Color(40,40,40));
+// Stresstest (Start mit dem Argument --stress)
+// ----------------------
+// Zufällige Folgen aus Einfügen und Löschen gegen java.util.TreeMap als Orakel (Schlüssel ->
+// Anzahl, da der Baum Duplikate erlaubt). Jede Folge beginnt mit einem leeren Baum und einem
+// zufälligen Schlüsselbereich, damit sowohl viele Duplikate als auch große Bäume vorkommen.
+// Nach jeder Operation prüft TreeVerifier.verifyAround, regelmäßig zusätzlich die
+// Zwischenzustände des Schritts und die Rückgabe von rank/select; am Ende jeder Folge laufen
+// verifyAll und ein Vergleich aller Schlüssel in Reihenfolge. Im geprüften Lauf bekommen auch
+// LongRedBlackTree, KeyedRedBlackTree und ArrayRedBlackTree (nur Einfügen) jede Folge, einmal pro
+// Lauf wird außerdem MappedRedBlackTree geschrieben, wieder geöffnet und gegen das Orakel geprüft.
+// Danach wird dieselbe Folge ohne Prüfung und ohne Orakel wiederholt und der Durchsatz gemeldet –
+// das ist die Zahl, die bei Optimierungen des heißen Pfads interessiert.
+// Aufruf: java -cp target/classes Main --stress [Operationen] [Seed]
+class TreeStressTest {
+    private static final int MAX_SEQUENCE = 4096;
+    private static final int DETAIL_EVERY = 32;
+    private static final int MAPPED_KEYS = 100_000;
+    private static final int SESSION_OPS = 5_000;
+
+    public static void run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        long operations = (args.length > 1) ? Long.parseLong(args[1]) : 2_000_000;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.nanoTime();
+        System.out.printf("Stresstest: %,d Operationen, Seed %d%n", operations, seed);
+
+        long start = System.nanoTime();
+        long sequences = run(operations, seed, true);
+        long verified = System.nanoTime() - start;
+        System.out.printf("mit Prüfung:  %,d Folgen, %,d ops in %.1f s (%,.0f ops/s)%n",
+                sequences, operations, verified / 1e9, operations * 1e9 / verified);
+
+        start = System.nanoTime();
+        run(operations, seed, false);
+        long plain = System.nanoTime() - start;
+        System.out.printf("ohne Prüfung: %,d ops in %.1f s (%,.0f ops/s)%n",
+                operations, plain / 1e9, operations * 1e9 / plain);
     }
-    public void setTreeState(Node treeState) {
-        this.treeState = treeState;
-        repaint();
+
+    // Liefert die Anzahl der Folgen. Jeder Fehler bricht mit IllegalStateException samt Seed und
+    // Position ab, damit sich der Fall mit demselben Seed nachstellen lässt.
+    static long run(long operations, long seed, boolean check) {
+        Random random = new Random(seed);
+        long done = 0;
+        long sequences = 0;
+        while (done < operations) {
+            int length = (int) Math.min(operations - done, 1 + random.nextInt(MAX_SEQUENCE));
+            int range = 1 << (1 + random.nextInt(20));
+            long sequenceSeed = random.nextLong();
+            try {
+                sequence(new Random(sequenceSeed), length, range, check);
+                if (check) keyedSequence(new Random(sequenceSeed), length, range);
+                if (check) arraySequence(new Random(sequenceSeed), length, range);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("Folge " + sequences + " (Seed " + seed + "): " + e, e);
+            }
+            done += length;
+            sequences++;
+        }
+        if (check) {
+            try {
+                mappedRoundTrip(new Random(seed), (int) Math.min(operations, MAPPED_KEYS));
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalStateException("MappedRedBlackTree (Seed " + seed + "): " + e, e);
+            }
+            try {
+                sessionRoundTrip(new Random(seed), (int) Math.min(operations, SESSION_OPS));
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalStateException("TreeSerializer (Seed " + seed + "): " + e, e);
+            }
+        }
+        return sequences;
     }
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        if(treeState != null){
-            drawTree(g, treeState, getWidth()/2, 80, getWidth()/4);
-        }
-    }
-    private void drawTree(Graphics g, Node node, int x, int y, int xOffset) {
-        if(node == null) return;
-        g.setColor(node.isRed ? Color.RED : Color.BLACK);
-        g.fillOval(x - nodeRadius, y - nodeRadius, nodeRadius*2, nodeRadius*2);
-        g.setColor(Color.WHITE);
-        String num = String.valueOf(node.key);
-        int numWidth = g.getFontMetrics().stringWidth(num);
-        int numHeight = g.getFontMetrics().getAscent();
-        g.drawString(num, x - numWidth/2, y + numHeight/2 - 2);
-        int childY = y + 40;
-        if(node.left != null){
-            int childX = x - xOffset;
-            drawEdge(g, x, y, childX, childY);
-            drawTree(g, node.left, childX, childY, xOffset/2);
-        } else {
-            int nilX = x - xOffset;
-            drawEdge(g, x, y, nilX, childY);
-            drawNil(g, nilX, childY);
-        }
-        if(node.right != null){
-            int childX = x + xOffset;
-            drawEdge(g, x, y, childX, childY);
-            drawTree(g, node.right, childX, childY, xOffset/2);
+
+    private static void sequence(Random random, int length, int range, boolean check) {
+        RedBlackTree tree = new RedBlackTree();
+        tree.setVerifying(check);
+        TreeMap<Integer, Integer> oracle = new TreeMap<>();
+        // Eigener Zufall für die Stichproben, damit die Operationsfolge in beiden Läufen gleich ist
+        Random probe = new Random(random.nextLong());
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            int key = random.nextInt(range) - range / 2;
+            boolean insert = random.nextInt(100) < 55;
+            if (insert) {
+                tree.insert(key);
+                if (check) oracle.merge(key, 1, Integer::sum);
+                size++;
+            } else {
+                // Meist einen vorhandenen Schlüssel löschen (über select, damit beide Läufe dieselbe
+                // Folge ausführen), sonst einen beliebigen
+                if (random.nextBoolean() && size > 0) key = tree.select(random.nextInt(size));
+                boolean removed = tree.delete(key);
+                if (check) {
+                    Integer count = oracle.get(key);
+                    if (removed != (count != null)) {
+                        throw new IllegalStateException("delete(" + key + ") lieferte " + removed + " in Operation " + i);
+                    }
+                    if (count != null && count > 1) oracle.put(key, count - 1);
+                    else if (count != null) oracle.remove(key);
+                }
+                if (removed) size--;
+            }
+            if (check && i % DETAIL_EVERY == 0) checkDetails(tree, oracle, size, probe, insert, i);
+        }
+        if (check) {
+            TreeVerifier.verifyAll(tree.snapshot(), false);
+            compare(tree.snapshot(), oracle, size);
+        }
+    }
+
+    private static void checkDetails(RedBlackTree tree, TreeMap<Integer, Integer> oracle, int size,
+                                     Random random, boolean insertion, int operation) {
+        if (tree.size() != size) {
+            throw new IllegalStateException("size() = " + tree.size() + ", erwartet " + size + " in Operation " + operation);
+        }
+        List<TreeState> steps = tree.getSteps();
+        if (!steps.isEmpty()) {
+            TreeState last = steps.get(steps.size() - 1);
+            for (Node state : last.intermediateStates) TreeVerifier.verifyIntermediate(state, insertion);
+            TreeVerifier.verifyAll(last.tree(), false);
+        }
+        if (size > 0) {
+            int index = random.nextInt(size);
+            int key = tree.select(index);
+            int below = 0;
+            for (int count : oracle.headMap(key).values()) below += count;
+            if (tree.rank(key) != below || index < below || index >= below + oracle.get(key)) {
+                throw new IllegalStateException("select(" + index + ") = " + key + " passt nicht zu rank in Operation " + operation);
+            }
+        }
+    }
+
+    // Dieselbe Art Folge für LongRedBlackTree (Schlüssel über den int-Bereich hinaus) und
+    // KeyedRedBlackTree mit absteigendem Comparator. Die Regeln werden über display() und
+    // TreeVerifier.verifyAll geprüft, die Reihenfolge über select gegen das jeweilige Orakel.
+    private static void keyedSequence(Random random, int length, int range) {
+        LongRedBlackTree longs = new LongRedBlackTree();
+        KeyedRedBlackTree<Integer> keyed = new KeyedRedBlackTree<>(Comparator.reverseOrder());
+        TreeMap<Long, Integer> longOracle = new TreeMap<>();
+        TreeMap<Integer, Integer> keyedOracle = new TreeMap<>(Comparator.reverseOrder());
+        for (int i = 0; i < length; i++) {
+            int key = random.nextInt(range) - range / 2;
+            long longKey = key * 0x1_0000_0001L;
+            if (random.nextInt(100) < 55) {
+                longs.insert(longKey);
+                keyed.insert(key);
+                longOracle.merge(longKey, 1, Integer::sum);
+                keyedOracle.merge(key, 1, Integer::sum);
+            } else {
+                if (random.nextBoolean() && keyed.size() > 0) {
+                    key = keyed.select(random.nextInt(keyed.size()));
+                    longKey = key * 0x1_0000_0001L;
+                }
+                boolean expected = keyedOracle.containsKey(key);
+                if (longs.delete(longKey) != expected || keyed.delete(key) != expected) {
+                    throw new IllegalStateException("delete(" + key + ") weicht vom Orakel ab in Operation " + i);
+                }
+                if (expected) {
+                    longOracle.computeIfPresent(longKey, (k, n) -> (n > 1) ? n - 1 : null);
+                    keyedOracle.computeIfPresent(key, (k, n) -> (n > 1) ? n - 1 : null);
+                }
+            }
+            // display() formatiert alle Schlüssel, daher seltener als beim int-Baum
+            if (i % (DETAIL_EVERY * 4) == 0) {
+                TreeVerifier.verifyAll(longs.display().root, false);
+                TreeVerifier.verifyAll(keyed.display().root, false);
+                if (longs.rank(longKey) != longOracle.headMap(longKey).values().stream().mapToInt(Integer::intValue).sum()) {
+                    throw new IllegalStateException("rank(" + longKey + ") weicht vom Orakel ab in Operation " + i);
+                }
+            }
+        }
+        TreeVerifier.verifyAll(longs.display().root, false);
+        TreeVerifier.verifyAll(keyed.display().root, false);
+        compareKeys(longs::select, longs.size(), longOracle);
+        compareKeys(keyed::select, keyed.size(), keyedOracle);
+    }
+
+    // ArrayRedBlackTree kennt nur Einfügen und contains. Geprüft wird contains gegen das Orakel und
+    // am Ende der über toNodeTree umgewandelte Baum mit verifyAll (inkl. parent) und rank/select.
+    private static void arraySequence(Random random, int length, int range) {
+        ArrayRedBlackTree tree = new ArrayRedBlackTree();
+        TreeMap<Integer, Integer> oracle = new TreeMap<>();
+        for (int i = 0; i < length; i++) {
+            int key = random.nextInt(range) - range / 2;
+            tree.insert(key);
+            oracle.merge(key, 1, Integer::sum);
+            int probe = random.nextInt(range) - range / 2;
+            if (tree.contains(probe) != oracle.containsKey(probe)) {
+                throw new IllegalStateException("ArrayRedBlackTree.contains(" + probe + ") weicht vom Orakel ab in Operation " + i);
+            }
+        }
+        Node converted = tree.toNodeTree();
+        TreeVerifier.verifyAll(converted, true);
+        compare(converted, oracle, tree.size());
+        if (tree.size() > 0) {
+            int index = random.nextInt(tree.size());
+            int key = RedBlackTree.select(converted, index);
+            if (RedBlackTree.rank(converted, key) > index) {
+                throw new IllegalStateException("rank/select auf toNodeTree passen nicht zusammen bei Index " + index);
+            }
+        }
+    }
+
+    // Einfügen, Schließen und Wiederöffnen; danach ein simulierter Absturz (zweite Instanz öffnet die
+    // Datei, während die erste nie geschlossen wurde), ein abgebrochenes Einfügen mit intakter
+    // Struktur (wird angenommen) und eines mit beschädigter Struktur (muss abgelehnt werden).
+    private static void mappedRoundTrip(Random random, int count) throws IOException {
+        if (count < 2) return;
+        Path file = Files.createTempFile("rbtree", ".map");
+        List<MappedRedBlackTree> open = new ArrayList<>();
+        try {
+            TreeMap<Integer, Integer> oracle = new TreeMap<>();
+            int[] keys = random.ints(count, -count, count).toArray();
+            try (MappedRedBlackTree tree = MappedRedBlackTree.open(file)) {
+                for (int i = 0; i < count / 2; i++) {
+                    tree.insert(keys[i]);
+                    oracle.merge(keys[i], 1, Integer::sum);
+                }
+            }
+            MappedRedBlackTree crashed = MappedRedBlackTree.open(file);
+            open.add(crashed);
+            checkMapped(crashed, oracle, count / 2, random, "nach close()");
+            for (int i = count / 2; i < count; i++) {
+                crashed.insert(keys[i]);
+                oracle.merge(keys[i], 1, Integer::sum);
+            }
+            MappedRedBlackTree reopened = MappedRedBlackTree.open(file);
+            open.add(reopened);
+            checkMapped(reopened, oracle, count, random, "ohne close()");
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                writeInt(channel, MappedRedBlackTree.HEADER_SIZE, count | MappedRedBlackTree.DIRTY_BIT);
+                MappedRedBlackTree interrupted = MappedRedBlackTree.open(file);
+                open.add(interrupted);
+                checkMapped(interrupted, oracle, count, random, "mit DIRTY_BIT");
+
+                ByteBuffer root = ByteBuffer.allocate(4);
+                channel.read(root, MappedRedBlackTree.HEADER_ROOT);
+                int rootSlot = root.getInt(0);
+                writeInt(channel, (long) rootSlot * MappedRedBlackTree.SLOT_BYTES + MappedRedBlackTree.LEFT, rootSlot);
+                writeInt(channel, MappedRedBlackTree.HEADER_SIZE, count | MappedRedBlackTree.DIRTY_BIT);
+                try {
+                    open.add(MappedRedBlackTree.open(file));
+                    throw new IllegalStateException("beschädigte Baumdatei mit DIRTY_BIT wurde angenommen");
+                } catch (IOException expected) {
+                    // erwartet
+                }
+            }
+        } finally {
+            for (MappedRedBlackTree tree : open) tree.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Speichern und Laden einer Sitzung mit Checkpoints, danach von Hand gebaute Dateien, deren
+    // lebender Baum bzw. Checkpoint gültig ist, aber nicht zum Protokoll passt.
+    private static void sessionRoundTrip(Random random, int count) throws IOException {
+        Path file = Files.createTempFile("rbtree", ".rbs");
+        try {
+            RedBlackTree tree = new RedBlackTree();
+            for (int i = 0; i < count; i++) {
+                if (random.nextInt(100) < 60) tree.insert(random.nextInt(count));
+                else tree.delete(random.nextInt(count));
+            }
+            TreeSerializer.save(tree, file);
+            RedBlackTree loaded = TreeSerializer.load(file, null);
+            if (loaded.getStepCount() != tree.getStepCount()) {
+                throw new IllegalStateException(loaded.getStepCount() + " Schritte geladen, erwartet " + tree.getStepCount());
+            }
+            for (int i = 0; i < tree.getStepCount(); i += 1 + random.nextInt(64)) {
+                if (!TreeHistory.sameTree(loaded.getSteps().get(i).tree(), tree.getSteps().get(i).tree())) {
+                    throw new IllegalStateException("Schritt " + i + " weicht nach dem Laden ab");
+                }
+            }
+            if (!TreeHistory.sameTree(loaded.snapshot(), tree.snapshot())) {
+                throw new IllegalStateException("lebender Baum weicht nach dem Laden ab");
+            }
+
+            checkSession(file, -1, 5, true, "passendem lebenden Baum");
+            checkSession(file, 5, 5, true, "passendem Checkpoint");
+            checkSession(file, -1, 7, false, "vertauschtem lebenden Baum");
+            checkSession(file, 7, 7, false, "vertauschtem Checkpoint");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Protokoll LINK 5 und RECOLOR schwarz an der Wurzel, ein Schritt; checkpointKey >= 0 legt nach
+    // beiden Operationen einen Checkpoint mit einem schwarzen Knoten an. Alle Werte sind kleiner als
+    // 128, passen also in ein Varint-Byte; Schlüssel stehen als Zickzack-Differenz im Baum-Eintrag.
+    private static void checkSession(Path file, int checkpointKey, int liveKey, boolean valid, String what)
+            throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(64).putInt(TreeSerializer.MAGIC).put((byte) TreeSerializer.VERSION);
+        out.put(new byte[] {2, TreeHistory.LINK, 0, 5 << 1, TreeHistory.RECOLOR, 0, 0});
+        int lastKey = 0;
+        if (checkpointKey >= 0) {
+            out.put(new byte[] {1, 2, (byte) ((checkpointKey << 1) << 2 | 2), 0, 0});
+            lastKey = checkpointKey;
         } else {
-            int nilX = x + xOffset;
-            drawEdge(g, x, y, nilX, childY);
-            drawNil(g, nilX, childY);
+            out.put((byte) 0);
+        }
+        out.put(new byte[] {1, 2, 0, 0, 0, (byte) ((liveKey - lastKey << 1) << 2 | 2), 0, 0});
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) channel.write(out);
+        }
+        try {
+            TreeSerializer.load(file, null);
+            if (!valid) throw new IllegalStateException("Sitzung mit " + what + " wurde angenommen");
+        } catch (IOException e) {
+            if (valid) throw new IllegalStateException("Sitzung mit " + what + " abgelehnt: " + e.getMessage(), e);
+        }
+    }
+
+    private static void checkMapped(MappedRedBlackTree tree, TreeMap<Integer, Integer> oracle, int size,
+                                    Random random, String when) {
+        if (tree.size() != size) throw new IllegalStateException("size() = " + tree.size() + " " + when + ", erwartet " + size);
+        for (int key : oracle.keySet()) {
+            if (!tree.contains(key)) throw new IllegalStateException("Schlüssel " + key + " fehlt " + when);
+        }
+        for (int i = 0; i < 1000; i++) {
+            int probe = random.nextInt();
+            if (tree.contains(probe) != oracle.containsKey(probe)) {
+                throw new IllegalStateException("contains(" + probe + ") weicht vom Orakel ab " + when);
+            }
+        }
+    }
+
+    private static void writeInt(FileChannel channel, long position, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).putInt(0, value);
+        while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+
+    private static <K> void compareKeys(IntFunction<K> select, int size, TreeMap<K, Integer> oracle) {
+        int i = 0;
+        for (Map.Entry<K, Integer> entry : oracle.entrySet()) {
+            for (int n = 0; n < entry.getValue(); n++) {
+                if (i >= size || !select.apply(i).equals(entry.getKey())) {
+                    throw new IllegalStateException("Schlüssel an Position " + i + " weicht vom Orakel ab, erwartet " + entry.getKey());
+                }
+                i++;
+            }
+        }
+        if (i != size) throw new IllegalStateException(size + " Schlüssel im Baum, erwartet " + i);
+    }
+
+    private static void compare(Node snapshot, TreeMap<Integer, Integer> oracle, int size) {
+        int[] keys = new int[size];
+        int[] filled = {0};
+        inorder(snapshot, keys, filled);
+        if (filled[0] != size) throw new IllegalStateException(filled[0] + " Schlüssel im Baum, erwartet " + size);
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : oracle.entrySet()) {
+            for (int n = 0; n < entry.getValue(); n++) {
+                if (keys[i] != entry.getKey()) {
+                    throw new IllegalStateException("Schlüssel " + keys[i] + " an Position " + i + ", erwartet " + entry.getKey());
+                }
+                i++;
+            }
+        }
+    }
+
+    private static void inorder(Node node, int[] keys, int[] filled) {
+        while (node != null) {
+            inorder(node.left, keys, filled);
+            if (filled[0] < keys.length) keys[filled[0]] = node.key;
+            filled[0]++;
+            node = node.right;
+        }
+    }
+}
+
+// ----------------------
+// Laden aus Datei oder stdin
+// ----------------------
+// Liest Schlüssel auf dem SwingWorker-Thread (nicht auf dem EDT) mit KeyParser.parse und fügt sie
+// batchweise in den Baum ein. Der modale Fortschrittsdialog sperrt währenddessen alle anderen
+// Eingaben, sodass nur der Lade-Thread den Baum verändert. Vorschau-Snapshots (Path-Copying) gehen
+// höchstens alle PREVIEW_INTERVAL_NS an den Visualizer. Abbrechen behält die bis dahin gelesenen
+// Zahlen; der gemeinsame Schritt dafür wird erst in done() auf dem EDT angelegt.
+// Der Worker startet erst, wenn der Dialog offen ist (windowOpened) – sonst könnte done() den
+// Dialog schließen, bevor setVisible(true) ihn zeigt, und der modale Dialog bliebe für immer offen.
+// Bei stdin beendet Abbrechen ein blockierendes read() durch Schließen des Kanals; stdin ist
+// danach für das Programm geschlossen.
+class KeyLoader extends SwingWorker<Long, Node> {
+    private static final long PREVIEW_INTERVAL_NS = 250_000_000L;
+
+    private final JFrame frame;
+    private final RedBlackTree tree;
+    private final TreeVisualizer visualizer;
+    private final Path file; // null = stdin
+    private final FileChannel stdin;
+    private final InvalidTokens invalid = new InvalidTokens();
+    private final JDialog dialog;
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JLabel countLabel = new JLabel(" ");
+    private volatile boolean stopRequested;
+    private volatile long loadedKeys;
+    private long lastPreview;
+
+    // Nur auf dem EDT erzeugen und starten.
+    KeyLoader(JFrame frame, RedBlackTree tree, TreeVisualizer visualizer, Path file) {
+        this.frame = frame;
+        this.tree = tree;
+        this.visualizer = visualizer;
+        this.file = file;
+        // FileChannel statt Channels.newChannel(System.in): nur dessen read() bricht beim Schließen ab.
+        this.stdin = (file == null) ? new FileInputStream(FileDescriptor.in).getChannel() : null;
+
+        dialog = new JDialog(frame, Localization.get("loadTitle"), Dialog.ModalityType.APPLICATION_MODAL);
+        JButton btnCancel = new JButton(Localization.get("loadCancel"));
+        btnCancel.addActionListener(e -> requestStop());
+        progressBar.setIndeterminate(file == null);
+        progressBar.setStringPainted(file != null);
+        JPanel panel = new JPanel(new BorderLayout(8, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        panel.add(new JLabel(file != null ? file.getFileName().toString() : "stdin"), BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(countLabel, BorderLayout.CENTER);
+        south.add(btnCancel, BorderLayout.EAST);
+        panel.add(south, BorderLayout.SOUTH);
+        dialog.setContentPane(panel);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                execute();
+            }
+
+            @Override
+            public void windowClosing(WindowEvent e) {
+                requestStop();
+            }
+        });
+        dialog.setSize(360, 140);
+        dialog.setLocationRelativeTo(frame);
+        addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) progressBar.setValue((Integer) e.getNewValue());
+        });
+    }
+
+    // Zeigt den Dialog (der Worker startet in windowOpened) und kehrt erst zurück, wenn das Laden
+    // beendet oder abgebrochen wurde.
+    void start() {
+        dialog.setVisible(true);
+    }
+
+    private void requestStop() {
+        stopRequested = true;
+        if (stdin != null) {
+            try {
+                stdin.close();
+            } catch (IOException ignored) {
+                // der Lade-Thread endet trotzdem spätestens beim nächsten Stück
+            }
+        }
+    }
+
+    @Override
+    protected Long doInBackground() throws IOException {
+        KeyParser.Progress progress = new KeyParser.Progress() {
+            @Override
+            public boolean isCancelled() {
+                return stopRequested;
+            }
+
+            @Override
+            public void update(long read, long total) {
+                if (total > 0) setProgress((int) (read * 100 / total));
+            }
+        };
+        if (file != null) return KeyParser.parse(file, this::insertBatch, invalid, progress);
+        return KeyParser.parse(stdin, this::insertBatch, invalid, progress);
+    }
+
+    private void insertBatch(int[] keys, int count) {
+        tree.insertBatch(keys, count);
+        loadedKeys += count;
+        long now = System.nanoTime();
+        if (now - lastPreview >= PREVIEW_INTERVAL_NS) {
+            lastPreview = now;
+            publish(tree.snapshot());
         }
     }
 
-    private void drawEdge(Graphics g, int parentX, int parentY, int childX, int childY) {
-        double dx = childX - parentX;
-        double dy = childY - parentY;
-        double dist = Math.sqrt(dx * dx + dy * dy);
-        int startX = (int)Math.round(parentX + (dx/dist * nodeRadius));
-        int startY = (int)Math.round(parentY + (dy/dist * nodeRadius));
-        int endX = (int)Math.round(childX - (dx/dist * nodeRadius));
-        int endY = (int)Math.round(childY - (dy/dist * nodeRadius));
-        g.setColor(Color.WHITE);
-        g.drawLine(startX, startY, endX, endY);
+    @Override
+    protected void process(List<Node> previews) {
+        visualizer.showPreview(previews.get(previews.size() - 1));
+        countLabel.setText(String.format(Localization.get("loadProgress"), loadedKeys));
     }
 
-    private void drawNil(Graphics g, int x, int y) {
-        g.setColor(Color.GRAY);
-        g.fillOval(x - nodeRadius, y - nodeRadius, nodeRadius*2, nodeRadius*2);
-        g.setColor(Color.WHITE);
-        String txt = "NIL";
-        int w = g.getFontMetrics().stringWidth(txt);
-        int h = g.getFontMetrics().getAscent();
-        g.drawString(txt, x - w/2, y + h/2 - 2);
+    @Override
+    protected void done() {
+        dialog.dispose();
+        visualizer.showPreview(null);
+        tree.endBatches();
+        tree.showStep(tree.getStepCount() - 1);
+        Main.currentInputString = Main.inputOf(tree);
+        try {
+            get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            JOptionPane.showMessageDialog(frame, Localization.get("loadError") + " " + ex.getCause().getMessage(),
+                    Localization.get("invalidTitle"), JOptionPane.ERROR_MESSAGE);
+        }
+        Main.showInvalidTokens(frame, invalid);
     }
 }
 
@@ -595,12 +5269,27 @@ class IntermediateTreePanel extends JPanel {
 public class Main {
     public static String LANGUAGE = "DE";
     public static String currentInputString = "";
+    // Ab so vielen sortierten Zahlen wird auf die Einzelschritt-Darstellung verzichtet.
+    static final int BULK_BUILD_THRESHOLD = 1000;
+    // Ab dieser Eingabelänge (Zeichen) wird parallel geparst, sortiert und zusammengeführt.
+    static final int PARALLEL_LOAD_LENGTH = 1 << 20;
     public static void main(String[] args) {
-        Object[] options = {"Deutsch", "English"};
-        int langChoice = JOptionPane.showOptionDialog(null, "Sprache / Language",
-                "Language Selection", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
-        LANGUAGE = (langChoice == 1) ? "EN" : "DE";
-        JFrame frame = new JFrame((LANGUAGE.equals("EN") ? "Red-Black Tree Visualization" : "Rot-Schwarz-Baum Visualisierung") + " (Step by Step)");
+        if (args.length > 0 && args[0].equals("--stress")) {
+            TreeStressTest.run(args);
+            return;
+        }
+        // -Dlanguage=fr wählt die Sprache ohne Dialog, auch solche aus einem messages_*.properties.
+        String preset = System.getProperty("language");
+        if (preset != null && !preset.isBlank()) {
+            LANGUAGE = preset.trim().toUpperCase(Locale.ROOT);
+        } else {
+            Object[] options = {"Deutsch", "English"};
+            int langChoice = JOptionPane.showOptionDialog(null, "Sprache / Language",
+                    "Language Selection", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+            LANGUAGE = (langChoice == 1) ? "EN" : "DE";
+        }
+        TreeMetrics.register();
+        JFrame frame = new JFrame(Localization.get("frameTitle"));
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.getContentPane().setBackground(new Color(40,40,40));
         TreeVisualizer visualizer = new TreeVisualizer(null);
@@ -610,19 +5299,15 @@ public class Main {
         final RedBlackTree[] treeHolder = new RedBlackTree[1];
         treeHolder[0] = new RedBlackTree(visualizer);
         visualizer.setTree(treeHolder[0]);
-        currentInputString = JOptionPane.showInputDialog(frame,
-                (LANGUAGE.equals("EN") ? "Enter numbers for the tree (comma separated):" :
-                        "Gib Zahlen zum Einfügen in den Rot-Schwarz-Baum ein (kommagetrennt):"),
-                (LANGUAGE.equals("EN") ? "Input" : "Eingabe"), JOptionPane.QUESTION_MESSAGE);
-        if (currentInputString != null && !currentInputString.trim().isEmpty()){
-            String[] tokens = currentInputString.trim().split("\\s*,\\s*");
-            for(String token : tokens){
-                try {
-                    treeHolder[0].insert(Integer.parseInt(token));
-                } catch(NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(frame, (LANGUAGE.equals("EN") ? "Invalid entry: " : "Ungültiger Eintrag: ") + token,
-                            (LANGUAGE.equals("EN") ? "Error" : "Fehler"), JOptionPane.ERROR_MESSAGE);
-                }
+        // Programmargument: Datei mit Zahlen oder "-" für stdin statt der Eingabezeile;
+        // --timestamps/--words Datei zeigt stattdessen einen Baum mit anderem Schlüsseltyp.
+        boolean keyed = args.length > 0 && (args[0].equals("--timestamps") || args[0].equals("--words"));
+        boolean loadFromArgs = args.length > 0 && !keyed;
+        if (!loadFromArgs && !keyed) {
+            currentInputString = JOptionPane.showInputDialog(frame, Localization.get("inputMessage"),
+                    Localization.get("inputTitle"), JOptionPane.QUESTION_MESSAGE);
+            if (currentInputString != null && !currentInputString.trim().isEmpty()){
+                insertInput(frame, treeHolder[0], currentInputString);
             }
         }
         frame.addKeyListener(new KeyAdapter(){
@@ -635,6 +5320,36 @@ public class Main {
                     treeHolder[0].changeStep(-1);
                 } else if (key == KeyEvent.VK_ESCAPE) {
                     System.exit(0);
+                } else if (key == KeyEvent.VK_M) {
+                    visualizer.toggleStats();
+                } else if (key == KeyEvent.VK_O) {
+                    JFileChooser chooser = new JFileChooser();
+                    if (chooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                        new KeyLoader(frame, treeHolder[0], visualizer, chooser.getSelectedFile().toPath()).start();
+                    }
+                } else if (key == KeyEvent.VK_S && e.isControlDown()) {
+                    JFileChooser chooser = new JFileChooser();
+                    if (chooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                        try {
+                            TreeSerializer.save(treeHolder[0], chooser.getSelectedFile().toPath());
+                        } catch (IOException ex) {
+                            JOptionPane.showMessageDialog(frame, Localization.get("saveError") + " " + ex.getMessage(),
+                                    Localization.get("invalidTitle"), JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                } else if (key == KeyEvent.VK_L && e.isControlDown()) {
+                    JFileChooser chooser = new JFileChooser();
+                    if (chooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                        try {
+                            RedBlackTree loaded = TreeSerializer.load(chooser.getSelectedFile().toPath(), visualizer);
+                            treeHolder[0] = loaded;
+                            visualizer.setTree(loaded);
+                            currentInputString = inputOf(loaded);
+                        } catch (IOException ex) {
+                            JOptionPane.showMessageDialog(frame, Localization.get("loadError") + " " + ex.getMessage(),
+                                    Localization.get("invalidTitle"), JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
                 } else if (key == KeyEvent.VK_ENTER) {
                     if (e.isShiftDown()) {
                         String newInput = (String)JOptionPane.showInputDialog(frame,
@@ -642,19 +5357,9 @@ public class Main {
                                 Localization.get("modifyInputTitle"),
                                 JOptionPane.QUESTION_MESSAGE, null, null, currentInputString);
                         if (newInput != null && !newInput.trim().isEmpty()){
+                            String oldInput = currentInputString;
                             currentInputString = newInput.trim();
-                            RedBlackTree newTree = new RedBlackTree(visualizer);
-                            treeHolder[0] = newTree;
-                            visualizer.setTree(newTree);
-                            String[] tokens = currentInputString.split("\\s*,\\s*");
-                            for(String token : tokens){
-                                try {
-                                    newTree.insert(Integer.parseInt(token));
-                                } catch(NumberFormatException ex) {
-                                    JOptionPane.showMessageDialog(frame, (LANGUAGE.equals("EN") ? "Invalid entry: " : "Ungültiger Eintrag: ") + token,
-                                            (LANGUAGE.equals("EN") ? "Error" : "Fehler"), JOptionPane.ERROR_MESSAGE);
-                                }
-                            }
+                            applyInputDiff(frame, treeHolder[0], oldInput, currentInputString);
                         }
                     } else {
                         int confirm = JOptionPane.showConfirmDialog(frame,
@@ -666,20 +5371,11 @@ public class Main {
                             treeHolder[0] = newTree;
                             visualizer.setTree(newTree);
                             currentInputString = JOptionPane.showInputDialog(frame,
-                                    (LANGUAGE.equals("EN") ? "Enter numbers for the new tree (comma separated):" :
-                                            "Gib Zahlen zum Einfügen in den neuen Baum ein (kommagetrennt):"),
-                                    (LANGUAGE.equals("EN") ? "Input" : "Eingabe"),
+                                    Localization.get("inputNewMessage"),
+                                    Localization.get("inputTitle"),
                                     JOptionPane.QUESTION_MESSAGE);
                             if (currentInputString != null && !currentInputString.trim().isEmpty()){
-                                String[] tokens = currentInputString.trim().split("\\s*,\\s*");
-                                for(String token : tokens){
-                                    try {
-                                        newTree.insert(Integer.parseInt(token));
-                                    } catch(NumberFormatException ex) {
-                                        JOptionPane.showMessageDialog(frame, (LANGUAGE.equals("EN") ? "Invalid entry: " : "Ungültiger Eintrag: ") + token,
-                                                (LANGUAGE.equals("EN") ? "Error" : "Fehler"), JOptionPane.ERROR_MESSAGE);
-                                    }
-                                }
+                                insertInput(frame, newTree, currentInputString);
                             }
                         }
                     }
@@ -687,5 +5383,142 @@ public class Main {
             }
         });
         frame.setVisible(true);
+        if (loadFromArgs) {
+            Path file = args[0].equals("-") ? null : Path.of(args[0]);
+            SwingUtilities.invokeLater(() -> new KeyLoader(frame, treeHolder[0], visualizer, file).start());
+        } else if (keyed) {
+            String source = (args.length > 1) ? args[1] : "-";
+            SwingUtilities.invokeLater(() -> showKeyed(frame, visualizer, args[0].equals("--timestamps"), source));
+        }
+    }
+
+    // Liest Zeitstempel (Millisekunden seit 1970, als Instant beschriftet) in einen LongRedBlackTree
+    // bzw. Wörter (ohne Groß-/Kleinschreibung sortiert) in einen KeyedRedBlackTree und zeigt ihn.
+    // Ohne Schritte: Die Bäume zeichnen nichts auf, Enter oder O kehren zum int-Baum zurück.
+    private static void showKeyed(JFrame frame, TreeVisualizer visualizer, boolean timestamps, String source) {
+        String text;
+        try {
+            text = source.equals("-") ? new String(System.in.readAllBytes(), StandardCharsets.UTF_8)
+                    : Files.readString(Path.of(source));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, Localization.get("loadError") + " " + ex.getMessage(),
+                    Localization.get("invalidTitle"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (timestamps) {
+            LongRedBlackTree tree = new LongRedBlackTree();
+            tree.setKeyFormat(key -> Instant.ofEpochMilli(key).toString());
+            InvalidTokens invalid = new InvalidTokens();
+            for (String token : text.split("[\\s,]+")) {
+                if (token.isEmpty()) continue;
+                try {
+                    tree.insert(Long.parseLong(token));
+                } catch (NumberFormatException ex) {
+                    int length = Math.min(token.length(), InvalidTokens.MAX_TOKEN_LENGTH);
+                    invalid.add(token.toCharArray(), length, length < token.length());
+                }
+            }
+            showInvalidTokens(frame, invalid);
+            visualizer.showDisplay(tree.display());
+        } else {
+            KeyedRedBlackTree<String> tree = new KeyedRedBlackTree<>(String.CASE_INSENSITIVE_ORDER);
+            for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) tree.insert(word);
+            }
+            visualizer.showDisplay(tree.display());
+        }
+    }
+
+    // Liest die kommagetrennten Zahlen ein und merkt sich dabei, ob sie bereits sortiert sind.
+    // Große sortierte Eingaben werden ohne Einzelschritte in O(n) aufgebaut, sehr große Eingaben
+    // per Fork-Join parallel geladen.
+    private static void insertInput(JFrame frame, RedBlackTree tree, String input) {
+        InvalidTokens invalid = new InvalidTokens();
+        if (input.length() >= PARALLEL_LOAD_LENGTH) {
+            tree.loadParallel(input, invalid);
+            showInvalidTokens(frame, invalid);
+            return;
+        }
+        KeyParser.KeyList keys = new KeyParser.KeyList();
+        KeyParser.parse(input, keys, invalid);
+        showInvalidTokens(frame, invalid);
+        if (keys.isSorted() && keys.size() >= BULK_BUILD_THRESHOLD) {
+            tree.buildFromSorted(keys.toArray());
+        } else {
+            for (int i = 0; i < keys.size(); i++) tree.insert(keys.get(i));
+        }
+    }
+
+    // Eingabezeile zum aktuellen Baum (Schlüssel aufsteigend). Nach dem Laden aus Datei oder Sitzung
+    // vergleicht Shift+Enter damit gegen den tatsächlichen Inhalt statt gegen die alte Eingabe.
+    static String inputOf(RedBlackTree tree) {
+        StringBuilder text = new StringBuilder();
+        tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE).forEach(key -> {
+            if (text.length() > 0) text.append(',');
+            text.append(key);
+        });
+        return text.toString();
+    }
+
+    // Eine Sammelmeldung statt eines Dialogs pro ungültigem Eintrag.
+    static void showInvalidTokens(JFrame frame, InvalidTokens invalid) {
+        if (frame == null || invalid.isEmpty()) return;
+        JOptionPane.showMessageDialog(frame, invalid.summary(), Localization.get("invalidTitle"), JOptionPane.ERROR_MESSAGE);
+    }
+
+    // Vergleicht alte und neue Eingabe als Multimenge und wendet nur die Differenz auf den
+    // bestehenden Baum an: entfernte Zahlen werden gelöscht, neue eingefügt. Die Anzeige springt
+    // zum ersten neuen Schritt.
+    // Gemeinsamer Anfang und gemeinsames Ende (an Kommagrenzen) werden vorher abgeschnitten, so
+    // wird nur der tatsächlich bearbeitete Ausschnitt zerlegt – auch bei 100k Zahlen.
+    private static void applyInputDiff(JFrame frame, RedBlackTree tree, String oldInput, String newInput) {
+        oldInput = (oldInput == null) ? "" : oldInput.trim();
+        newInput = newInput.trim();
+        if (oldInput.equals(newInput)) return;
+
+        int limit = Math.min(oldInput.length(), newInput.length());
+        int prefix = 0;
+        while (prefix < limit && oldInput.charAt(prefix) == newInput.charAt(prefix)) prefix++;
+        int start = oldInput.lastIndexOf(',', prefix - 1) + 1;
+
+        int suffix = 0;
+        int maxSuffix = limit - start;
+        while (suffix < maxSuffix
+                && oldInput.charAt(oldInput.length() - 1 - suffix) == newInput.charAt(newInput.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int oldEnd = oldInput.indexOf(',', oldInput.length() - suffix);
+        if (oldEnd < 0) oldEnd = oldInput.length();
+        int newEnd = oldEnd + (newInput.length() - oldInput.length());
+
+        int[] oldKeys = parseKeys(null, oldInput.substring(start, oldEnd));
+        int[] newKeys = parseKeys(frame, newInput.substring(start, newEnd));
+        HashMap<Integer, Integer> remaining = new HashMap<>();
+        for (int key : newKeys) remaining.merge(key, 1, Integer::sum);
+
+        int firstNewStep = tree.getStepCount();
+        for (int key : oldKeys) {
+            Integer count = remaining.get(key);
+            if (count == null || count == 0) tree.delete(key);
+            else remaining.put(key, count - 1);
+        }
+        for (int key : newKeys) {
+            Integer count = remaining.get(key);
+            if (count != null && count > 0) {
+                tree.insert(key);
+                remaining.put(key, count - 1);
+            }
+        }
+        tree.showStep(firstNewStep);
+    }
+
+    // Zerlegt die Eingabe in Zahlen. Ungültige Einträge werden gemeldet, sofern frame nicht null ist.
+    private static int[] parseKeys(JFrame frame, String input) {
+        if (input == null) return new int[0];
+        KeyParser.KeyList keys = new KeyParser.KeyList();
+        InvalidTokens invalid = new InvalidTokens();
+        KeyParser.parse(input, keys, invalid);
+        showInvalidTokens(frame, invalid);
+        return keys.toArray();
     }
 }
\ No newline at end of file